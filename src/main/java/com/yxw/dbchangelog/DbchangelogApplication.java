@@ -1,8 +1,10 @@
 package com.yxw.dbchangelog;
 
+import com.yxw.dbchangelog.config.ChangeLogProperties;
 import org.mybatis.spring.annotation.MapperScan;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.EnableAspectJAutoProxy;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
@@ -12,6 +14,7 @@ import org.springframework.transaction.annotation.EnableTransactionManagement;
 @MapperScan("com.yxw.dbchangelog.mapper") // 扫描 MyBatis Mapper 接口
 @EnableAspectJAutoProxy // 启用 Spring AOP 代理
 @EnableAsync // 启用 @Async 注解，通常和 AsyncConfig 一起使用
+@EnableConfigurationProperties(ChangeLogProperties.class) // 变更日志相关配置
 public class DbchangelogApplication {
 
 	public static void main(String[] args) {
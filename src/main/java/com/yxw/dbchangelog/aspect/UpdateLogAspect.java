@@ -1,5 +1,6 @@
 package com.yxw.dbchangelog.aspect;
 
+import com.yxw.dbchangelog.config.ChangeLogProperties;
 import com.yxw.dbchangelog.event.UpdateLogEvent;
 import com.yxw.dbchangelog.model.UpdateLog;
 import com.yxw.dbchangelog.util.JsonUtils;
@@ -13,7 +14,6 @@ import org.aspectj.lang.annotation.Pointcut;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Component;
 
-import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
@@ -28,8 +28,12 @@ public class UpdateLogAspect {
 
     private final ApplicationEventPublisher eventPublisher;
 
-    public UpdateLogAspect(ApplicationEventPublisher eventPublisher) {
+    // 只有开启 SQL 模板字典时才需要单独保存绑定值，否则 final_sql 中已经包含了
+    private final boolean statementDictionaryEnabled;
+
+    public UpdateLogAspect(ApplicationEventPublisher eventPublisher, ChangeLogProperties properties) {
         this.eventPublisher = eventPublisher;
+        this.statementDictionaryEnabled = properties.getStatementDictionary().isEnabled();
     }
 
     // 定义切点：所有带有 @Transactional 注解的服务层方法
@@ -57,16 +61,20 @@ public class UpdateLogAspect {
                 String tableName = (String) logInfo.get("tableName");
                 String parameters = JsonUtils.toJson(logInfo.get("parameters"));
                 Integer rowsAffected = (Integer) logInfo.get("rowsAffected");
+                Object beforeImage = logInfo.get("beforeImage");
+                Integer mergeCount = (Integer) logInfo.getOrDefault("mergeCount", 1);
                 UpdateLog updateLog = UpdateLog.builder().primaryId(primaryId).commandType(sqlCommandType)
                         .finalSql(finalSql).tableName(tableName).params(parameters).rowAffect(rowsAffected)
-                        .updateTime(new Date()).build();
-                // 发布事件，让异步监听器处理日志记录
+                        .beforeImage(beforeImage == null ? null : JsonUtils.toJson(beforeImage)).mergeCount(mergeCount)
+                        .statementId((String) logInfo.get("statementId")).sqlTemplate((String) logInfo.get("sqlTemplate"))
+                        .boundValues(statementDictionaryEnabled ? JsonUtils.toJson(logInfo.get("boundValues")) : null).build();
+                // 发布事件，事务提交前打变更序号，提交后由监听器交给写入器异步记录日志
                 eventPublisher.publishEvent(new UpdateLogEvent(this, updateLog));
             } catch (Exception e) {
                 e.printStackTrace();
             }
         }
-        // 清理 ThreadLocal，尽管 TransactionAwareUpdateLogHolder 的 afterCompletion 也会做
+        // 清空已发布的日志，嵌套的 REQUIRED 方法返回时已发布的日志不会被外层方法再发布一次；解绑由 afterCompletion 做
         TransactionAwareUpdateLogHolder.clearLogs();
     }
 
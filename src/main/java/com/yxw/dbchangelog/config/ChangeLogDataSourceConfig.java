@@ -0,0 +1,128 @@
+package com.yxw.dbchangelog.config;
+
+import com.yxw.dbchangelog.mapper.ChangeSequenceMapper;
+import com.yxw.dbchangelog.mapper.StatementDictionaryMapper;
+import com.yxw.dbchangelog.mapper.UpdateLogMapper;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.mybatis.spring.SqlSessionFactoryBean;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.actuate.jdbc.DataSourceHealthIndicator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 变更日志写入端使用的数据源和 MyBatis 配置。
+ * 默认和业务共用同一个 DataSource；changelog.datasource.enabled=true 时，日志写入使用独立的连接池（可以指向其他库或其他实例），
+ * 日志突发写入时不会占用业务连接。写入端的 Mapper 统一通过 changeLogXxxMapper 这几个 bean 注入。
+ * 这里的 bean 都声明为 defaultCandidate = false，不会影响业务 DataSource 和 SqlSessionFactory 的自动配置和按类型注入。
+ */
+@Configuration
+public class ChangeLogDataSourceConfig {
+
+    // 写入端用到的 mapper xml
+    private static final String[] SINK_MAPPER_LOCATIONS = {
+            "classpath*:/mapper/UpdateLogMapper.xml",
+            "classpath*:/mapper/StatementDictionaryMapper.xml",
+            "classpath*:/mapper/ChangeSequenceMapper.xml"
+    };
+
+    /**
+     * 独立数据源，连接配置在 changelog.datasource 下，连接池配置在 changelog.datasource.hikari 下
+     */
+    @Configuration
+    @ConditionalOnProperty(prefix = "changelog.datasource", name = "enabled", havingValue = "true")
+    static class DedicatedDataSourceConfig {
+
+        @Bean(defaultCandidate = false)
+        @ConfigurationProperties("changelog.datasource")
+        public DataSourceProperties changeLogDataSourceProperties() {
+            return new DataSourceProperties();
+        }
+
+        @Bean(defaultCandidate = false)
+        @ConfigurationProperties("changelog.datasource.hikari")
+        public HikariDataSource changeLogDataSource(@Qualifier("changeLogDataSourceProperties") DataSourceProperties properties,
+                                                    ObjectProvider<MeterRegistry> meterRegistry) {
+            HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+            if (!StringUtils.hasText(dataSource.getPoolName())) {
+                dataSource.setPoolName("ChangeLogPool");
+            }
+            // 单独的连接池指标，hikaricp.connections.* 中 pool 标签为连接池名
+            meterRegistry.ifAvailable(registry -> dataSource.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(registry)));
+            return dataSource;
+        }
+
+        @Bean(defaultCandidate = false)
+        public SqlSessionFactory changeLogSqlSessionFactory(@Qualifier("changeLogDataSource") HikariDataSource dataSource) throws Exception {
+            SqlSessionFactoryBean factoryBean = new SqlSessionFactoryBean();
+            factoryBean.setDataSource(dataSource);
+            PathMatchingResourcePatternResolver resolver = new PathMatchingResourcePatternResolver();
+            List<Resource> mapperLocations = new ArrayList<>();
+            for (String location : SINK_MAPPER_LOCATIONS) {
+                mapperLocations.addAll(Arrays.asList(resolver.getResources(location)));
+            }
+            factoryBean.setMapperLocations(mapperLocations.toArray(new Resource[0]));
+            org.apache.ibatis.session.Configuration configuration = new org.apache.ibatis.session.Configuration();
+            configuration.setMapUnderscoreToCamelCase(true);
+            factoryBean.setConfiguration(configuration);
+            return factoryBean.getObject();
+        }
+
+        @Bean(defaultCandidate = false)
+        public SqlSessionTemplate changeLogSqlSessionTemplate(@Qualifier("changeLogSqlSessionFactory") SqlSessionFactory sqlSessionFactory) {
+            return new SqlSessionTemplate(sqlSessionFactory);
+        }
+
+        /**
+         * 日志库的健康检查，在 /actuator/health 中显示为 changeLogDataSource
+         */
+        @Bean
+        public HealthIndicator changeLogDataSourceHealthIndicator(@Qualifier("changeLogDataSource") HikariDataSource dataSource) {
+            return new DataSourceHealthIndicator(dataSource);
+        }
+    }
+
+    /**
+     * 未开启独立数据源时，写入端直接使用业务的 SqlSessionFactory
+     */
+    @Configuration
+    @ConditionalOnProperty(prefix = "changelog.datasource", name = "enabled", havingValue = "false", matchIfMissing = true)
+    static class SharedDataSourceConfig {
+
+        @Bean(defaultCandidate = false)
+        public SqlSessionTemplate changeLogSqlSessionTemplate(SqlSessionFactory sqlSessionFactory) {
+            return new SqlSessionTemplate(sqlSessionFactory);
+        }
+    }
+
+    @Bean(defaultCandidate = false)
+    public UpdateLogMapper changeLogUpdateLogMapper(@Qualifier("changeLogSqlSessionTemplate") SqlSessionTemplate sqlSessionTemplate) {
+        return sqlSessionTemplate.getMapper(UpdateLogMapper.class);
+    }
+
+    @Bean(defaultCandidate = false)
+    public StatementDictionaryMapper changeLogStatementDictionaryMapper(@Qualifier("changeLogSqlSessionTemplate") SqlSessionTemplate sqlSessionTemplate) {
+        return sqlSessionTemplate.getMapper(StatementDictionaryMapper.class);
+    }
+
+    @Bean(defaultCandidate = false)
+    public ChangeSequenceMapper changeLogChangeSequenceMapper(@Qualifier("changeLogSqlSessionTemplate") SqlSessionTemplate sqlSessionTemplate) {
+        return sqlSessionTemplate.getMapper(ChangeSequenceMapper.class);
+    }
+}
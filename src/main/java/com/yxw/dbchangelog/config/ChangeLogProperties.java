@@ -0,0 +1,287 @@
+package com.yxw.dbchangelog.config;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.AssertTrue;
+import jakarta.validation.constraints.Min;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+import org.springframework.validation.annotation.Validated;
+
+import java.time.Duration;
+
+/**
+ * 变更日志相关的配置项，对应 application.yml 中 changelog 前缀下的配置。
+ */
+@Data
+@Validated
+@ConfigurationProperties(prefix = "changelog")
+public class ChangeLogProperties {
+
+    /**
+     * 日志写入模式，默认 async
+     */
+    private Mode mode = Mode.ASYNC;
+
+    /**
+     * 变更捕获相关配置
+     */
+    private Capture capture = new Capture();
+
+    /**
+     * 同一行多次更新的合并配置
+     */
+    private Coalesce coalesce = new Coalesce();
+
+    /**
+     * SQL 模板字典配置
+     */
+    private StatementDictionary statementDictionary = new StatementDictionary();
+
+    /**
+     * 日志写入器配置
+     */
+    private Writer writer = new Writer();
+
+    /**
+     * outbox 模式的配置
+     */
+    private Outbox outbox = new Outbox();
+
+    /**
+     * 热点表、热点行统计配置
+     */
+    @Valid
+    private Hot hot = new Hot();
+
+    /**
+     * 最近变更内存索引配置
+     */
+    private Recent recent = new Recent();
+
+    /**
+     * 按时间窗口回滚变更的配置
+     */
+    private Revert revert = new Revert();
+
+    /**
+     * 变更序号配置
+     */
+    @Valid
+    private Sequence sequence = new Sequence();
+
+    public enum Overflow {
+        /**
+         * 等待通道有空位，提交事务的业务线程会被阻塞，日志不会丢
+         */
+        BLOCK,
+        /**
+         * 丢弃日志并写死信日志，不阻塞业务线程
+         */
+        DROP
+    }
+
+    public enum Unavailable {
+        /**
+         * 日志不带序号照常写入，同时写死信日志，按序号续读的消费方读不到这些日志，需要从死信日志补录
+         */
+        DEGRADE,
+        /**
+         * 回滚业务事务，日志库不可用时所有带日志的业务提交都会失败
+         */
+        ROLLBACK
+    }
+
+    public enum Mode {
+        /**
+         * 事务提交后由写入器异步写日志表，进程崩溃或队列满时可能丢日志
+         */
+        ASYNC,
+        /**
+         * 事务提交前在业务事务中把日志批量写入 outbox 表，再由后台任务搬到日志表，日志和业务数据一起提交，不会丢失
+         */
+        OUTBOX
+    }
+
+    @Data
+    public static class Capture {
+        /**
+         * 是否在执行 UPDATE 前查询一次行数据作为变更前镜像（before-image），会多一次按主键的查询
+         */
+        private boolean beforeImage = false;
+    }
+
+    @Data
+    public static class Coalesce {
+        /**
+         * 是否在同一事务内合并对同一行 (表名, 主键) 的多次更新
+         */
+        private boolean enabled = false;
+        /**
+         * 写入端的合并时间窗口，窗口内对同一行的更新合并成一条日志再写库；为 0 时不在写入端合并。
+         * 合并只保留最早一次的变更前镜像，capture.before-image 关闭（默认）时日志中没有变更前镜像，合并后也就没有。
+         */
+        private Duration window = Duration.ZERO;
+    }
+
+    @Data
+    public static class StatementDictionary {
+        /**
+         * 是否开启 SQL 模板字典，开启后日志表不再保存完整的 final_sql，只保存模板ID和绑定值
+         */
+        private boolean enabled = false;
+    }
+
+    @Data
+    public static class Writer {
+        /**
+         * 写入通道数，日志按 (表名, 主键) 哈希到通道，每个通道一个写入线程
+         */
+        private int lanes = 4;
+        /**
+         * 每个通道一次最多批量写入的日志条数
+         */
+        private int batchSize = 100;
+        /**
+         * 每个通道的队列容量
+         */
+        private int queueCapacity = 10000;
+        /**
+         * 通道队列满时的处理方式，默认等待
+         */
+        private Overflow overflow = Overflow.BLOCK;
+    }
+
+    @Data
+    public static class Outbox {
+        /**
+         * 后台搬运 outbox 日志的间隔
+         */
+        private Duration relayInterval = Duration.ofSeconds(1);
+        /**
+         * 每次搬运和删除的最大条数
+         */
+        private int batchSize = 500;
+    }
+
+    @Data
+    public static class Hot {
+        /**
+         * 是否统计热点表、热点行
+         */
+        private boolean enabled = true;
+        /**
+         * 滑动统计窗口
+         */
+        private Duration window = Duration.ofMinutes(1);
+        /**
+         * 窗口切分的时间片数，时间片越多窗口滑动越平滑
+         */
+        @Min(1)
+        private int slices = 6;
+        /**
+         * 按业务线程分的段数，每段一组独立的 sketch 和锁，内存随段数成倍增加
+         */
+        @Min(1)
+        private int stripes = 8;
+        /**
+         * count-min sketch 的哈希函数个数
+         */
+        @Min(1)
+        private int depth = 4;
+        /**
+         * count-min sketch 每个哈希函数的桶数，越大误差越小
+         */
+        @Min(1)
+        private int width = 2048;
+        /**
+         * 保留的热点 key 个数
+         */
+        @Min(1)
+        private int topK = 20;
+
+        @AssertTrue(message = "changelog.hot.window must be positive")
+        public boolean isWindowPositive() {
+            return window != null && !window.isZero() && !window.isNegative();
+        }
+    }
+
+    @Data
+    public static class Recent {
+        /**
+         * 是否开启最近变更的内存索引，索引只能看到本实例提交的变更，只适用于单实例部署；
+         * 开启写入端合并（coalesce.window 大于 0）时不生效
+         */
+        private boolean enabled = false;
+        /**
+         * 内存中保留的时间范围，更早的查询直接查库
+         */
+        private Duration retention = Duration.ofHours(1);
+        /**
+         * 每一行最多保留的变更条数
+         */
+        private int perKeyCapacity = 32;
+        /**
+         * 所有行加起来最多保留的变更条数，超过后淘汰最久没有变更的行
+         */
+        private int maxEntries = 100000;
+        /**
+         * 所有行加起来的内存上限（按字符串长度估算），超过后淘汰最久没有变更的行；params、before_image 很大时先触发这个上限
+         */
+        private DataSize maxMemory = DataSize.ofMegabytes(64);
+    }
+
+    @Data
+    public static class Revert {
+        /**
+         * 每个分块的行数，一个分块一个事务、一次批量 UPDATE
+         */
+        private int chunkSize = 500;
+        /**
+         * 并行执行的分块数
+         */
+        private int parallelism = 4;
+        /**
+         * 任务中最多保留的差异明细行数
+         */
+        private int maxDiffRows = 1000;
+    }
+
+    @Data
+    public static class Sequence {
+        /**
+         * change_sequence 表中的序列名
+         */
+        private String name = "update_logs";
+        /**
+         * 每次从数据库预留的序号个数，越大访问数据库越少，重启时留下的空洞也越大
+         */
+        private int blockSize = 1000;
+        /**
+         * 每个实例刷新水位的间隔，按序号续读日志最多落后这么久
+         */
+        private Duration heartbeatInterval = Duration.ofSeconds(1);
+        /**
+         * 实例超过这么久没有刷新水位就不再参与续读水位的计算，需要大于 heartbeat-interval
+         */
+        private Duration instanceTimeout = Duration.ofSeconds(30);
+        /**
+         * 当前块用完而预取的块还没就绪时，提交线程最多等待的时间
+         */
+        private Duration reserveTimeout = Duration.ofMillis(200);
+        /**
+         * 拿不到序号（日志库不可用）时的处理方式，默认不影响业务提交
+         */
+        private Unavailable onUnavailable = Unavailable.DEGRADE;
+        /**
+         * 序号分出去后超过这么久还没完成（日志既没写入也没放弃）就强制标记完成并告警，避免一个序号永久挡住续读水位
+         */
+        private Duration inFlightTimeout = Duration.ofMinutes(5);
+
+        @AssertTrue(message = "changelog.sequence.instance-timeout must be longer than heartbeat-interval")
+        public boolean isInstanceTimeoutValid() {
+            return heartbeatInterval != null && instanceTimeout != null && !heartbeatInterval.isZero()
+                    && !heartbeatInterval.isNegative() && instanceTimeout.compareTo(heartbeatInterval) > 0;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.yxw.dbchangelog.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yxw.dbchangelog.util.JsonUtils;
+import jakarta.annotation.PostConstruct;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 让 JsonUtils 使用 Spring 容器中的 ObjectMapper，和 application.yml 中 spring.jackson 的配置保持一致
+ */
+@Configuration
+public class JsonUtilsConfig {
+
+    private final ObjectMapper objectMapper;
+
+    public JsonUtilsConfig(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    @PostConstruct
+    public void init() {
+        JsonUtils.setObjectMapper(objectMapper);
+    }
+}
@@ -0,0 +1,52 @@
+package com.yxw.dbchangelog.controller;
+
+import com.yxw.dbchangelog.model.RevertJob;
+import com.yxw.dbchangelog.model.RevertRequest;
+import com.yxw.dbchangelog.service.RevertService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/revert-jobs")
+public class RevertController {
+
+    private final RevertService revertService;
+
+    public RevertController(RevertService revertService) {
+        this.revertService = revertService;
+    }
+
+    /**
+     * 提交按时间窗口回滚的任务，默认 dry-run 只计算差异。
+     * URL: POST /revert-jobs  body: {"tableName":"products","from":"...","to":"...","filter":{"updatedBy":"job"},"dryRun":true}
+     */
+    @PostMapping
+    public ResponseEntity<?> submit(@RequestBody RevertRequest request) {
+        try {
+            return new ResponseEntity<>(revertService.submit(request), HttpStatus.ACCEPTED);
+        } catch (IllegalArgumentException e) {
+            Map<String, String> response = new HashMap<>();
+            response.put("status", "error");
+            response.put("message", "Bad request: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
+        }
+    }
+
+    /**
+     * 查询回滚任务的进度和差异。
+     * URL: GET /revert-jobs/{jobId}
+     */
+    @GetMapping("/{jobId}")
+    public ResponseEntity<RevertJob> getJob(@PathVariable String jobId) {
+        RevertJob job = revertService.getJob(jobId);
+        if (job != null) {
+            return ResponseEntity.ok(job);
+        } else {
+            return ResponseEntity.notFound().build();
+        }
+    }
+}
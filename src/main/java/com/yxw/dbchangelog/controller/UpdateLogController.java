@@ -0,0 +1,76 @@
+package com.yxw.dbchangelog.controller;
+
+import com.yxw.dbchangelog.model.HotChange;
+import com.yxw.dbchangelog.model.UpdateLog;
+import com.yxw.dbchangelog.service.HotChangeTracker;
+import com.yxw.dbchangelog.service.UpdateLogQueryService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/update-logs")
+public class UpdateLogController {
+
+    private final UpdateLogQueryService updateLogQueryService;
+
+    private final HotChangeTracker hotChangeTracker;
+
+    public UpdateLogController(UpdateLogQueryService updateLogQueryService, HotChangeTracker hotChangeTracker) {
+        this.updateLogQueryService = updateLogQueryService;
+        this.hotChangeTracker = hotChangeTracker;
+    }
+
+    /**
+     * 按变更序号顺序读取日志，从上次读到的 changeSeq 继续读。
+     * URL: GET /update-logs?afterSeq=0&limit=100
+     */
+    @GetMapping
+    public ResponseEntity<List<UpdateLog>> getLogsAfterSeq(@RequestParam(defaultValue = "0") Long afterSeq,
+                                                           @RequestParam(defaultValue = "100") int limit) {
+        return ResponseEntity.ok(updateLogQueryService.getLogsAfterSeq(afterSeq, limit));
+    }
+
+    /**
+     * 查询统计窗口内更新最频繁的表和行。
+     * URL: GET /update-logs/hot?top=10
+     */
+    @GetMapping("/hot")
+    public ResponseEntity<?> getHotChanges(@RequestParam(defaultValue = "10") int top) {
+        if (top < 0) {
+            Map<String, String> response = new HashMap<>();
+            response.put("status", "error");
+            response.put("message", "Bad request: top must not be negative");
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
+        }
+        Map<String, List<HotChange>> response = new HashMap<>();
+        response.put("tables", hotChangeTracker.topTables(top));
+        response.put("rows", hotChangeTracker.topRows(top));
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 查询某一行的变更日志。
+     * URL: GET /update-logs/{tableName}/{primaryId}
+     */
+    @GetMapping("/{tableName}/{primaryId}")
+    public ResponseEntity<List<UpdateLog>> getLogs(@PathVariable String tableName, @PathVariable Long primaryId) {
+        return ResponseEntity.ok(updateLogQueryService.getLogsByPrimaryId(tableName, primaryId));
+    }
+
+    /**
+     * 查询某一行最近一段时间的变更，保留时间内的查询直接从内存返回。
+     * URL: GET /update-logs/{tableName}/{primaryId}/recent?minutes=60
+     */
+    @GetMapping("/{tableName}/{primaryId}/recent")
+    public ResponseEntity<List<UpdateLog>> getRecentLogs(@PathVariable String tableName, @PathVariable Long primaryId,
+                                                         @RequestParam(defaultValue = "60") long minutes) {
+        Date since = new Date(System.currentTimeMillis() - minutes * 60 * 1000);
+        return ResponseEntity.ok(updateLogQueryService.getRecentLogs(tableName, primaryId, since));
+    }
+}
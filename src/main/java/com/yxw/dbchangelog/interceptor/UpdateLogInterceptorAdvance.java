@@ -1,5 +1,12 @@
 package com.yxw.dbchangelog.interceptor;
 
+import com.yxw.dbchangelog.config.ChangeLogProperties;
+import com.yxw.dbchangelog.mapper.ChangeSequenceMapper;
+import com.yxw.dbchangelog.mapper.StatementDictionaryMapper;
+import com.yxw.dbchangelog.mapper.UpdateLogMapper;
+import com.yxw.dbchangelog.mapper.UpdateLogOutboxMapper;
+import com.yxw.dbchangelog.service.HotChangeTracker;
+import com.yxw.dbchangelog.util.SqlTemplateUtils;
 import com.yxw.dbchangelog.util.TransactionAwareUpdateLogHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.ibatis.executor.Executor;
@@ -12,6 +19,10 @@ import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.type.TypeHandlerRegistry;
 import org.springframework.stereotype.Component;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.text.DateFormat;
 import java.util.*;
 import java.util.regex.Matcher;
@@ -27,20 +38,36 @@ public class UpdateLogInterceptorAdvance implements Interceptor {
     // 正则表达式，用于匹配 UPDATE 语句中的表名
     private static final Pattern UPDATE_TABLE_PATTERN = Pattern.compile("^\\s*UPDATE\\s+(`?)([a-zA-Z0-9_]+)(`?)\\s+SET", Pattern.CASE_INSENSITIVE);
 
+    // 变更日志自身的语句（写日志表、预留变更序号等），不记录日志也不计入热点统计
+    private static final Set<String> CHANGELOG_NAMESPACES = Set.of(UpdateLogMapper.class.getName(),
+            UpdateLogOutboxMapper.class.getName(), StatementDictionaryMapper.class.getName(), ChangeSequenceMapper.class.getName());
+
+    private final ChangeLogProperties properties;
+
+    private final HotChangeTracker hotChangeTracker;
+
+    public UpdateLogInterceptorAdvance(ChangeLogProperties properties, HotChangeTracker hotChangeTracker) {
+        this.properties = properties;
+        this.hotChangeTracker = hotChangeTracker;
+    }
+
     @Override
     public Object intercept(Invocation invocation) throws Throwable {
         MappedStatement mappedStatement = (MappedStatement) invocation.getArgs()[0];
         Object parameter = invocation.getArgs()[1];
         String sqlCommandType = mappedStatement.getSqlCommandType().name();
-        // 仅处理 UPDATE 操作
-        if (!"UPDATE".equalsIgnoreCase(sqlCommandType)) {
+        // 仅处理业务的 UPDATE 操作
+        if (!"UPDATE".equalsIgnoreCase(sqlCommandType) || isChangeLogStatement(mappedStatement)) {
             // 非更新操作直接放行
             return invocation.proceed();
         }
         BoundSql boundSql = mappedStatement.getBoundSql(parameter);
         Configuration configuration = mappedStatement.getConfiguration();
         // --- 获取最终执行的SQL (参数拼接后的SQL) ---
-        String finalSql = showSql(configuration, boundSql);
+        // 模板和绑定值分开保存，开启 SQL 模板字典时日志表中只存模板ID和绑定值
+        String sqlTemplate = SqlTemplateUtils.normalize(boundSql.getSql());
+        List<String> boundValues = getBoundValues(configuration, boundSql);
+        String finalSql = SqlTemplateUtils.render(sqlTemplate, boundValues);
         log.info("----- [MyBatis Interceptor] Final SQL: {}", finalSql);
         // --- 获取 UPDATE 操作的表名 ---
         String tableName = getTableNameFromUpdateSql(boundSql.getSql());
@@ -49,6 +76,13 @@ public class UpdateLogInterceptorAdvance implements Interceptor {
         } else {
             log.info("----- [MyBatis Interceptor] Could not determine table name for SQL: {}", boundSql.getSql());
         }
+        // 尝试从参数中提取主键，但通用性较差
+        Long primaryId = getPrimaryId(parameter);
+        // 执行更新前查询变更前镜像，必须在 proceed 之前查，查询走的是当前事务的同一个连接
+        Map<String, Object> beforeImage = null;
+        if (properties.getCapture().isBeforeImage() && tableName != null && primaryId != null) {
+            beforeImage = selectBeforeImage((Executor) invocation.getTarget(), tableName, primaryId);
+        }
         // 执行更新操作,result 是受影响的行数 (Integer)
         Object result = invocation.proceed();
         int rowsAffected = (Integer) result;
@@ -56,29 +90,32 @@ public class UpdateLogInterceptorAdvance implements Interceptor {
 
         // 仅在当前存在活动事务时，且更新影响行数大于0，才将信息添加到事务感知的持有者中
         if (rowsAffected > 0) {
+            // 热点表、热点行计数
+            hotChangeTracker.record(tableName, primaryId);
             Map<String, Object> logInfo = new HashMap<>();
             logInfo.put("sqlCommandType", sqlCommandType);
             // 将拼接后的SQL放入日志信息
             logInfo.put("finalSql", finalSql);
+            logInfo.put("statementId", mappedStatement.getId());
+            logInfo.put("sqlTemplate", sqlTemplate);
+            logInfo.put("boundValues", boundValues);
             // 将表名放入日志信息
             logInfo.put("tableName", tableName);
             // 传递原始参数，AOP可能需要
             logInfo.put("parameters", parameter);
             logInfo.put("rowsAffected", rowsAffected);
-            try {
-                // 尝试从参数中提取主键，但通用性较差
-                if (parameter != null) {
-                    Long id = (Long) parameter.getClass().getMethod("getId").invoke(parameter);
-                    logInfo.put("primaryId", id);
-                }
-            } catch (Exception e) {
-                log.error("----- [MyBatis Interceptor] Could not extract primary key from parameter for logging.");
-            }
+            logInfo.put("primaryId", primaryId);
+            logInfo.put("beforeImage", beforeImage);
             // 添加到事务感知的持有者
             // 注意：Service层添加的业务上下文信息 (oldPrice, newPrice, updatedBy等)
             // 和这里添加的SQL层面的信息会在AOP中合并或分别处理。
             // 这里只添加拦截器能获取到的信息。
-            TransactionAwareUpdateLogHolder.addLog(logInfo);
+            if (properties.getCoalesce().isEnabled()) {
+                // 开启合并时，同一事务内对同一行的多次更新只保留一条日志
+                TransactionAwareUpdateLogHolder.addOrMergeLog(logInfo);
+            } else {
+                TransactionAwareUpdateLogHolder.addLog(logInfo);
+            }
         }
         return result;
     }
@@ -97,35 +134,34 @@ public class UpdateLogInterceptorAdvance implements Interceptor {
     }
 
     /**
-     * 格式化参数，获取最终执行的SQL语句
+     * 按占位符顺序获取格式化后的参数值，和SQL模板一起可以拼出最终执行的SQL语句
      */
-    private String showSql(Configuration configuration, BoundSql boundSql) {
+    private List<String> getBoundValues(Configuration configuration, BoundSql boundSql) {
         Object parameterObject = boundSql.getParameterObject();
         List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
-        // 去除多余空格，并将换行符替换为单个空格，使得SQL在一行显示
-        String sql = boundSql.getSql().replaceAll("[\\s]+", " ");
+        List<String> values = new ArrayList<>();
 
         if (parameterMappings != null && !parameterMappings.isEmpty()) {
             TypeHandlerRegistry typeHandlerRegistry = configuration.getTypeHandlerRegistry();
             if (typeHandlerRegistry.hasTypeHandler(parameterObject.getClass())) {
-                sql = sql.replaceFirst("\\?", Matcher.quoteReplacement(getParameterValue(parameterObject)));
+                values.add(getParameterValue(parameterObject));
             } else {
                 MetaObject metaObject = configuration.newMetaObject(parameterObject);
                 for (ParameterMapping parameterMapping : parameterMappings) {
                     String propertyName = parameterMapping.getProperty();
                     if (metaObject.hasGetter(propertyName)) {
                         Object obj = metaObject.getValue(propertyName);
-                        sql = sql.replaceFirst("\\?", Matcher.quoteReplacement(getParameterValue(obj)));
+                        values.add(getParameterValue(obj));
                     } else if (boundSql.hasAdditionalParameter(propertyName)) {
                         Object obj = boundSql.getAdditionalParameter(propertyName);
-                        sql = sql.replaceFirst("\\?", Matcher.quoteReplacement(getParameterValue(obj)));
+                        values.add(getParameterValue(obj));
                     } else {
-                        sql = sql.replaceFirst("\\?", "缺失");
+                        values.add("缺失");
                     }
                 }
             }
         }
-        return sql;
+        return values;
     }
 
     /**
@@ -158,4 +194,60 @@ public class UpdateLogInterceptorAdvance implements Interceptor {
         }
         return null;
     }
+
+    /**
+     * 判断语句是否属于变更日志自身的 mapper（按 MappedStatement ID 的命名空间），共用数据源时这些语句也会经过拦截器
+     */
+    private boolean isChangeLogStatement(MappedStatement mappedStatement) {
+        String id = mappedStatement.getId();
+        int lastDot = id.lastIndexOf('.');
+        return lastDot > 0 && CHANGELOG_NAMESPACES.contains(id.substring(0, lastDot));
+    }
+
+    /**
+     * 从参数对象的 getId 方法中获取主键，获取不到返回 null
+     */
+    private Long getPrimaryId(Object parameter) {
+        if (parameter == null) {
+            return null;
+        }
+        try {
+            return (Long) parameter.getClass().getMethod("getId").invoke(parameter);
+        } catch (Exception e) {
+            log.error("----- [MyBatis Interceptor] Could not extract primary key from parameter for logging.");
+            return null;
+        }
+    }
+
+    /**
+     * 按主键查询更新前的整行数据作为变更前镜像。
+     * 使用 Executor 当前事务中的连接，不要关闭这个连接，它由 MyBatis/Spring 管理。
+     * 这里假定主键列名为 id，和 getPrimaryId 的约定一致。
+     * 使用 SELECT ... FOR UPDATE：REPEATABLE READ 下普通 SELECT 读的是事务开始后的快照，事务中先读过这一行时，
+     * 其他事务在这之后提交的修改看不到，记下的变更前镜像是旧的，按它合并或回滚会把别人的修改改回去。
+     * 加锁读读的是最新提交的版本，并且锁住这一行直到事务结束，紧接着的 UPDATE 改的正是这个版本。
+     */
+    private Map<String, Object> selectBeforeImage(Executor executor, String tableName, Long primaryId) {
+        try {
+            Connection connection = executor.getTransaction().getConnection();
+            // tableName 来自 UPDATE_TABLE_PATTERN，只包含字母数字下划线，可以直接拼接
+            try (PreparedStatement ps = connection.prepareStatement("SELECT * FROM " + tableName + " WHERE id = ? FOR UPDATE")) {
+                ps.setLong(1, primaryId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) {
+                        return null;
+                    }
+                    ResultSetMetaData metaData = rs.getMetaData();
+                    Map<String, Object> row = new LinkedHashMap<>();
+                    for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                        row.put(metaData.getColumnLabel(i).toLowerCase(Locale.ROOT), rs.getObject(i));
+                    }
+                    return row;
+                }
+            }
+        } catch (Exception e) {
+            log.error("----- [MyBatis Interceptor] Could not select before image of {}#{}", tableName, primaryId, e);
+            return null;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,76 @@
+package com.yxw.dbchangelog.listener;
+
+import com.yxw.dbchangelog.config.ChangeLogProperties;
+import com.yxw.dbchangelog.event.UpdateLogEvent;
+import com.yxw.dbchangelog.model.UpdateLog;
+import com.yxw.dbchangelog.service.ChangeSequenceGenerator;
+import com.yxw.dbchangelog.util.JsonUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * 在事务提交前给日志打上变更序号。
+ * 事件是在事务内发布的，BEFORE_COMMIT 阶段的监听器在事务提交前执行，回滚的事务不会打序号。
+ * 拿不到序号（日志库不可用、预取的块还没就绪）时按 changelog.sequence.on-unavailable 处理：
+ * degrade 时日志不带序号照常写入，事务提交后写一条死信日志，按序号续读的消费方读不到这条日志，需要补录；
+ * rollback 时抛出异常，业务事务回滚。
+ * 打完序号后事务没有提交（回滚，或者提交时连接断开、结果未知），这个序号不会有日志写入，在 afterCompletion 中标记为完成，不挡住续读水位。
+ */
+@Slf4j
+@Component
+public class ChangeSequenceListener {
+
+    // 死信日志，和写入器共用，记录没有序号的日志
+    private static final Logger DEAD_LETTER_LOG = LoggerFactory.getLogger("changelog.dead-letter");
+
+    private final ChangeSequenceGenerator changeSequenceGenerator;
+
+    private final ChangeLogProperties.Unavailable onUnavailable;
+
+    public ChangeSequenceListener(ChangeSequenceGenerator changeSequenceGenerator, ChangeLogProperties properties) {
+        this.changeSequenceGenerator = changeSequenceGenerator;
+        this.onUnavailable = properties.getSequence().getOnUnavailable();
+    }
+
+    @Order(Ordered.HIGHEST_PRECEDENCE) // 先于其他提交前的处理打序号
+    @TransactionalEventListener(phase = TransactionPhase.BEFORE_COMMIT, fallbackExecution = true)
+    public void stampChangeSequence(UpdateLogEvent event) {
+        UpdateLog updateLog = event.getLog();
+        Long changeSeq = changeSequenceGenerator.next();
+        if (changeSeq == null && onUnavailable == ChangeLogProperties.Unavailable.ROLLBACK) {
+            log.error("[Change Sequence] Change sequence is unavailable, rolling back the transaction.");
+            throw new IllegalStateException("Change sequence is unavailable.");
+        }
+        updateLog.setChangeSeq(changeSeq);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            // 没有事务时日志随后就会写入
+            if (changeSeq == null) {
+                writeDeadLetter(updateLog);
+            }
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    changeSequenceGenerator.complete(changeSeq);
+                } else if (changeSeq == null) {
+                    writeDeadLetter(updateLog);
+                }
+            }
+        });
+    }
+
+    private void writeDeadLetter(UpdateLog updateLog) {
+        DEAD_LETTER_LOG.error("[Change Sequence] Change sequence unavailable, update log written without change_seq: {}",
+                JsonUtils.toJson(updateLog));
+    }
+}
@@ -1,33 +1,48 @@
 package com.yxw.dbchangelog.listener;
 
 import com.yxw.dbchangelog.event.UpdateLogEvent;
-import com.yxw.dbchangelog.mapper.UpdateLogMapper;
+import com.yxw.dbchangelog.service.ChangeSequenceGenerator;
+import com.yxw.dbchangelog.sink.UpdateLogCoalescer;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.context.event.EventListener;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Date;
 
 /**
  * 产品更新日志事件监听器。
- * 异步地将日志保存到数据库。
+ * 事务提交后把日志交给写入器，由写入器按行分道、批量地将日志保存到数据库，这里不会阻塞业务线程。
+ * 事务回滚时不会收到事件。outbox 模式下由 UpdateLogOutboxListener 处理。
+ * 交给写入器的是副本，写入线程对日志的修改（例如模板字典去掉 final_sql）不会影响同一事件的其他监听器。
  * 可以增加重试和更健壮的错误处理。
  */
 @Slf4j
 @Component
+@ConditionalOnProperty(prefix = "changelog", name = "mode", havingValue = "async", matchIfMissing = true)
 public class ProductUpdateLogListener {
 
-    private final UpdateLogMapper logMapper;
+    private final UpdateLogCoalescer coalescer;
+
+    private final ChangeSequenceGenerator changeSequenceGenerator;
 
-    public ProductUpdateLogListener(UpdateLogMapper logMapper) {
-        this.logMapper = logMapper;
+    public ProductUpdateLogListener(UpdateLogCoalescer coalescer, ChangeSequenceGenerator changeSequenceGenerator) {
+        this.coalescer = coalescer;
+        this.changeSequenceGenerator = changeSequenceGenerator;
     }
 
-    @EventListener // 标记为事件监听器
-    @Async         // 使该方法异步执行
+    // 事务提交后执行；没有事务时发布的事件直接执行。先于其他提交后的监听器执行，它们看到的日志已经有提交时间
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
     public void handleProductUpdateLogEvent(UpdateLogEvent event) {
         try {
-            // 真正执行日志的数据库插入操作
-            logMapper.insertLog(event.getLog());
+            // 日志时间取事务提交的时间
+            event.getLog().setUpdateTime(new Date());
+            // 真正执行日志的数据库插入操作，开启合并窗口时会先在窗口内合并同一行的日志
+            coalescer.offer(event.getLog().toBuilder().build());
         } catch (Exception e) {
             // 异步日志记录失败的处理：
             // 1. 记录到错误日志文件（例如使用 SLF4J 或 Logback）
@@ -35,6 +50,8 @@ public class ProductUpdateLogListener {
             // 3. 如果启用了 @Retryable，这里是最终失败后的处理
             log.error("[Log Listener] Failed to insert update log, Error: " + e);
             e.printStackTrace();
+            // 这条日志不会再写入，不能让它的序号挡住续读水位
+            changeSequenceGenerator.complete(event.getLog().getChangeSeq());
             // 考虑发送告警通知 (例如邮件、短信)
         }
     }
@@ -0,0 +1,29 @@
+package com.yxw.dbchangelog.listener;
+
+import com.yxw.dbchangelog.event.UpdateLogEvent;
+import com.yxw.dbchangelog.service.RecentChangeIndex;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+/**
+ * 事务提交后把变更放入最近变更的内存索引，async 和 outbox 两种模式都会执行。
+ * 在 ProductUpdateLogListener 记录提交时间之后执行，内存中的时间和日志表中的一致。
+ */
+@Component
+public class RecentChangeIndexListener {
+
+    private final RecentChangeIndex recentChangeIndex;
+
+    public RecentChangeIndexListener(RecentChangeIndex recentChangeIndex) {
+        this.recentChangeIndex = recentChangeIndex;
+    }
+
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void handleUpdateLogEvent(UpdateLogEvent event) {
+        recentChangeIndex.add(event.getLog());
+    }
+}
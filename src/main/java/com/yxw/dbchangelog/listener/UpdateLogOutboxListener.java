@@ -0,0 +1,114 @@
+package com.yxw.dbchangelog.listener;
+
+import com.yxw.dbchangelog.event.UpdateLogEvent;
+import com.yxw.dbchangelog.mapper.UpdateLogOutboxMapper;
+import com.yxw.dbchangelog.model.UpdateLog;
+import com.yxw.dbchangelog.service.ChangeSequenceGenerator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * outbox 模式的日志监听器。
+ * 事务中收集到的日志先暂存在当前事务上，在 beforeCommit 中用一条多值 INSERT 写入 outbox 表。
+ * 写入用的是业务事务的连接，日志和业务数据一起提交或一起回滚，不会出现业务提交了日志却丢了的情况；
+ * 代价是每个事务多一次数据库交互，而不是每条 UPDATE 一次。
+ * outbox 表中的日志由 UpdateLogOutboxRelay 搬到日志表。
+ * 缓冲列表是绑定在线程上的自定义资源，事务挂起时不会自动解绑，同步器在 suspend/resume 中自己解绑和重新绑定，
+ * REQUIRES_NEW 的内层事务使用自己的缓冲，和自己一起提交，不会混进外层事务的缓冲。
+ * 事务提交后日志已经在 outbox 表中，序号标记为完成，续读水位另外按 outbox 中最小的序号计算。
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "changelog", name = "mode", havingValue = "outbox")
+public class UpdateLogOutboxListener {
+
+    // 绑定在当前事务上的待写入日志列表的key
+    private static final String OUTBOX_BUFFER_KEY = "updateLogOutboxBuffer";
+
+    private final UpdateLogOutboxMapper outboxMapper;
+
+    private final ChangeSequenceGenerator changeSequenceGenerator;
+
+    public UpdateLogOutboxListener(UpdateLogOutboxMapper outboxMapper, ChangeSequenceGenerator changeSequenceGenerator) {
+        this.outboxMapper = outboxMapper;
+        this.changeSequenceGenerator = changeSequenceGenerator;
+    }
+
+    @EventListener
+    public void handleUpdateLogEvent(UpdateLogEvent event) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            // 没有事务时直接写入
+            event.getLog().setUpdateTime(new Date());
+            try {
+                outboxMapper.insertBatch(Collections.singletonList(event.getLog()));
+            } finally {
+                changeSequenceGenerator.complete(event.getLog().getChangeSeq());
+            }
+            return;
+        }
+        getTransactionBuffer().add(event.getLog());
+    }
+
+    /**
+     * 获取当前事务的待写入日志列表，第一次获取时注册提交前批量写入的同步器
+     */
+    @SuppressWarnings("unchecked")
+    private List<UpdateLog> getTransactionBuffer() {
+        List<UpdateLog> buffer = (List<UpdateLog>) TransactionSynchronizationManager.getResource(OUTBOX_BUFFER_KEY);
+        if (buffer != null) {
+            return buffer;
+        }
+        List<UpdateLog> newBuffer = new ArrayList<>();
+        TransactionSynchronizationManager.bindResource(OUTBOX_BUFFER_KEY, newBuffer);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public int getOrder() {
+                // 在 ChangeSequenceListener 打完序号之后执行
+                return Ordered.LOWEST_PRECEDENCE;
+            }
+
+            @Override
+            public void suspend() {
+                // REQUIRES_NEW 等挂起外层事务时解绑，内层事务会绑定自己的缓冲
+                TransactionSynchronizationManager.unbindResourceIfPossible(OUTBOX_BUFFER_KEY);
+            }
+
+            @Override
+            public void resume() {
+                TransactionSynchronizationManager.bindResource(OUTBOX_BUFFER_KEY, newBuffer);
+            }
+
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                if (newBuffer.isEmpty()) {
+                    return;
+                }
+                Date commitTime = new Date();
+                newBuffer.forEach(updateLog -> updateLog.setUpdateTime(commitTime));
+                // 这里抛出异常会导致业务事务回滚，保证日志和业务数据一致
+                outboxMapper.insertBatch(newBuffer);
+                log.info("----- Wrote {} update logs to outbox before commit.", newBuffer.size());
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(OUTBOX_BUFFER_KEY);
+                // 回滚时由 ChangeSequenceListener 标记完成
+                if (status == STATUS_COMMITTED) {
+                    newBuffer.forEach(updateLog -> changeSequenceGenerator.complete(updateLog.getChangeSeq()));
+                }
+            }
+        });
+        return newBuffer;
+    }
+}
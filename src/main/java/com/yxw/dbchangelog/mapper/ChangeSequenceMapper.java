@@ -0,0 +1,15 @@
+package com.yxw.dbchangelog.mapper;
+
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+@Mapper
+public interface ChangeSequenceMapper {
+    Long selectNextValue(String name);
+    int insertIgnore(@Param("name") String name, @Param("nextValue") Long nextValue); // 序列已存在时忽略
+    int compareAndSet(@Param("name") String name, @Param("expected") Long expected, @Param("nextValue") Long nextValue); // 乐观更新，返回0表示被其他实例抢先
+    int upsertWatermark(@Param("name") String name, @Param("instanceId") String instanceId, @Param("watermark") long watermark); // 同时刷新心跳时间
+    Long selectLowestWatermark(@Param("name") String name, @Param("timeoutSeconds") long timeoutSeconds); // 只看没有超时的实例，没有时返回 null
+    int deleteExpiredWatermarks(@Param("name") String name, @Param("timeoutSeconds") long timeoutSeconds);
+    int deleteWatermark(@Param("name") String name, @Param("instanceId") String instanceId);
+}
@@ -0,0 +1,10 @@
+package com.yxw.dbchangelog.mapper;
+
+import com.yxw.dbchangelog.model.StatementDictionary;
+import org.apache.ibatis.annotations.Mapper;
+
+@Mapper
+public interface StatementDictionaryMapper {
+    int insertIgnore(StatementDictionary statementDictionary); // 模板已存在时忽略
+    StatementDictionary selectById(Long id);
+}
@@ -2,8 +2,25 @@ package com.yxw.dbchangelog.mapper;
 
 import com.yxw.dbchangelog.model.UpdateLog;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.session.ResultHandler;
+
+import java.util.Date;
+import java.util.List;
 
 @Mapper
 public interface UpdateLogMapper {
     int insertLog(UpdateLog log);
+    int insertLogs(@Param("logs") List<UpdateLog> logs); // 批量写入，一条多值 INSERT
+    List<UpdateLog> selectByPrimaryId(@Param("tableName") String tableName, @Param("primaryId") Long primaryId);
+    List<UpdateLog> selectByPrimaryIdSince(@Param("tableName") String tableName, @Param("primaryId") Long primaryId,
+                                           @Param("since") Date since);
+    // 流式读取时间窗口内某张表的日志，按提交顺序
+    void scanByTimeRange(@Param("tableName") String tableName, @Param("from") Date from, @Param("to") Date to,
+                         ResultHandler<UpdateLog> handler);
+    // 按变更序号顺序读取 (afterSeq, upToSeq] 之间的日志，供消费方断点续读
+    List<UpdateLog> selectAfterSeq(@Param("afterSeq") Long afterSeq, @Param("upToSeq") long upToSeq, @Param("limit") int limit);
+    // 序号不大于 upToSeq 的最后一条日志的提交时间
+    Date selectUpdateTimeUpToSeq(@Param("upToSeq") long upToSeq);
+    List<Long> selectPrimaryIdsChangedAfter(@Param("tableName") String tableName, @Param("after") Date after);
 }
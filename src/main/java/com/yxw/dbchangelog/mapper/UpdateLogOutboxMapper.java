@@ -0,0 +1,15 @@
+package com.yxw.dbchangelog.mapper;
+
+import com.yxw.dbchangelog.model.UpdateLog;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+@Mapper
+public interface UpdateLogOutboxMapper {
+    int insertBatch(@Param("logs") List<UpdateLog> logs); // 一条多值 INSERT 写入一个事务的全部日志
+    List<UpdateLog> claimBatch(@Param("limit") int limit); // 需要在事务中调用，锁定的行到事务结束才释放
+    int deleteByIds(@Param("ids") List<Long> ids);
+    Long selectLowestChangeSeq(); // 还没搬运的日志中最小的序号，outbox 为空时返回 null
+}
@@ -0,0 +1,16 @@
+package com.yxw.dbchangelog.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 热点表或热点行，key 为表名或 表名#主键，count 为统计窗口内的估计更新次数
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+public class HotChange {
+    private String key;
+    private Long count;
+}
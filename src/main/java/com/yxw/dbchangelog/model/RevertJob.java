@@ -0,0 +1,73 @@
+package com.yxw.dbchangelog.model;
+
+import lombok.Data;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 回滚任务及其进度
+ */
+@Data
+public class RevertJob {
+
+    public enum Status {
+        PENDING, RUNNING, COMPLETED, FAILED
+    }
+
+    private String jobId;
+    private RevertRequest request;
+    private volatile Status status = Status.PENDING;
+    /**
+     * 需要回滚的行数
+     */
+    private volatile long totalRows;
+    /**
+     * 已处理的行数
+     */
+    private final AtomicLong processedRows = new AtomicLong();
+    /**
+     * 和当前数据有差异的行数（dry-run 时为将要更新的行数）
+     */
+    private final AtomicLong changedRows = new AtomicLong();
+    /**
+     * 有冲突而跳过的行数：窗口内第一条符合条件的变更之后还有不符合条件的变更，或者窗口结束后又被修改过
+     */
+    private volatile long conflictRows;
+    /**
+     * 没有变更前镜像而无法回滚的行数
+     */
+    private volatile long missingImageRows;
+    /**
+     * 已经提交的分块的主键范围，任务失败时这些范围内的行已经回滚
+     */
+    private final List<IdRange> appliedRanges = new CopyOnWriteArrayList<>();
+    /**
+     * 差异明细，最多保留 changelog.revert.max-diff-rows 行
+     */
+    private final List<RowDiff> diffs = new CopyOnWriteArrayList<>();
+    private volatile String error;
+    private Date startTime;
+    private volatile Date endTime;
+
+    /**
+     * 一个分块的主键范围（包含两端）
+     */
+    @Data
+    public static class IdRange {
+        private final Long fromId;
+        private final Long toId;
+    }
+
+    /**
+     * 一行数据的差异，changes 中 key 为列名，value 为 [当前值, 回滚后的值]
+     */
+    @Data
+    public static class RowDiff {
+        private Long primaryId;
+        private Map<String, Object[]> changes;
+    }
+}
@@ -0,0 +1,37 @@
+package com.yxw.dbchangelog.model;
+
+import lombok.Data;
+
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * 按时间窗口回滚变更的请求
+ */
+@Data
+public class RevertRequest {
+    /**
+     * 要回滚的表
+     */
+    private String tableName;
+    /**
+     * 时间窗口开始（包含），按日志的提交时间 update_time
+     */
+    private Date from;
+    /**
+     * 时间窗口结束（包含），不能晚于安全序号处最后一条日志的提交时间，更晚的日志可能还没写入日志表
+     */
+    private Date to;
+    /**
+     * 可选过滤条件，只回滚参数(params)中这些字段等于给定值的变更，如 {"updatedBy": "price-job"}
+     */
+    private Map<String, Object> filter;
+    /**
+     * 只计算差异不执行更新
+     */
+    private boolean dryRun = true;
+    /**
+     * 有冲突的行（窗口内有不符合过滤条件的后续变更、窗口结束后又被修改过）默认跳过，为 true 时也回滚
+     */
+    private boolean force = false;
+}
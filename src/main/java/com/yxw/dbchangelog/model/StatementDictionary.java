@@ -0,0 +1,19 @@
+package com.yxw.dbchangelog.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Data
+public class StatementDictionary {
+    private Long id;
+    private String statementId;
+    private String sqlTemplate;
+    private Date createTime;
+}
@@ -9,7 +9,7 @@ import java.util.Date;
 
 @NoArgsConstructor
 @AllArgsConstructor
-@Builder
+@Builder(toBuilder = true)
 @Data
 public class UpdateLog {
     private Long id;
@@ -20,4 +20,32 @@ public class UpdateLog {
     private String params;
     private Integer rowAffect;
     private Date updateTime;
+    /**
+     * 变更序号，事务提交前打上，同一行的变更序号和提交顺序一致
+     */
+    private Long changeSeq;
+    /**
+     * 变更前镜像（更新前的整行数据，json），未开启 before-image 捕获时为空
+     */
+    private String beforeImage;
+    /**
+     * 这条日志合并了多少次对同一行的更新，未合并时为 1
+     */
+    private Integer mergeCount;
+    /**
+     * SQL 模板ID，对应 statement_dictionary 表的主键；开启模板字典时 finalSql 不落库，读取时由模板和绑定值还原
+     */
+    private Long statementHash;
+    /**
+     * 按占位符顺序格式化后的绑定值（json 数组）
+     */
+    private String boundValues;
+    /**
+     * MappedStatement 的ID，只用于登记模板字典，不落日志表
+     */
+    private String statementId;
+    /**
+     * 带 ? 占位符的 SQL 模板，只用于登记模板字典，不落日志表
+     */
+    private String sqlTemplate;
 }
\ No newline at end of file
@@ -0,0 +1,502 @@
+package com.yxw.dbchangelog.service;
+
+import cn.hutool.core.util.IdUtil;
+import com.yxw.dbchangelog.config.ChangeLogProperties;
+import com.yxw.dbchangelog.mapper.ChangeSequenceMapper;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 变更序号(LSN)生成器。
+ * 序号按块从 change_sequence 表中预留，一次预留 block-size 个，块内的序号在内存中用原子计数分配，分配路径上没有锁。
+ * 当前块用到一半时在后台线程预取下一个块，块用完时直接换上预取的块；预取还没完成时提交线程最多等 reserve-timeout，
+ * 等不到（例如日志库不可用）时 next 返回 null，由 ChangeSequenceListener 按 changelog.sequence.on-unavailable 处理，
+ * 日志库故障不会让业务提交长时间卡住。
+ * 预留使用乐观更新（比较旧值再更新），多个实例同时预留也不会拿到重复的块。
+ * 预留在业务事务之外执行（挂起当前事务、自动提交），业务事务回滚不会把已经分出去的块退回去，也不会长时间持有序列行的行锁。
+ * 重启或块没用完时会留下空洞，序号只保证递增、不保证连续。
+ * 序号在事务提交前（beforeCommit）打到日志上：同一行的两次更新会被行锁串行化，后一个事务要等前一个提交后才能执行更新，
+ * 所以同一行的日志序号一定和提交顺序一致，写入端按序号排序即可保证同一行的顺序。
+ * <p>
+ * 不同行的日志写入日志表的顺序和序号顺序无关（多个写入通道、批量写入、outbox 搬运，多个实例各自持有不同的块），
+ * 按序号断点续读时不能直接读到日志表中最大的序号，否则还没写入的小序号会被永久跳过。
+ * 所以每个序号分出去后记为"未完成"，日志写入日志表（或 outbox 表）、事务没有提交、日志被合并或丢弃时调用 complete 标记完成。
+ * 每个块按 64 个序号一段记录完成数，心跳时从最小的一段往后找第一段没有全部完成的，得到本实例的水位（小于等于它的序号都已完成），
+ * 写到 change_sequence_watermark 表，getSafeSeq 取所有存活实例水位的最小值，消费方只读到这个序号为止。
+ * 一段超过 in-flight-timeout 还没完成（例如漏调了 complete）时强制标记完成并告警，避免一个序号永久挡住所有消费方。
+ * 实例超过 instance-timeout 没有心跳就不再参与计算，这个实例上还没写入的日志可能被跳过。
+ */
+@Slf4j
+@Service
+public class ChangeSequenceGenerator implements MeterBinder {
+
+    // 乐观更新失败时最多重试的次数
+    private static final int MAX_RESERVE_ATTEMPTS = 10;
+
+    // 每段的序号个数，水位按段推进
+    private static final int SEGMENT_SIZE = 64;
+
+    private final ChangeSequenceMapper changeSequenceMapper;
+
+    private final String sequenceName;
+
+    private final int blockSize;
+
+    private final long heartbeatIntervalMillis;
+
+    private final long instanceTimeoutSeconds;
+
+    private final long reserveTimeoutMillis;
+
+    private final long inFlightTimeoutNanos;
+
+    // 当前实例在水位表中的ID，每次启动都不同
+    private final String instanceId = IdUtil.fastSimpleUUID();
+
+    // 挂起业务事务执行预留
+    private final TransactionTemplate reserveTemplate;
+
+    // 当前正在分配的块，初始为空块，第一次分配时预留
+    private final AtomicReference<Block> currentBlock = new AtomicReference<>(new Block(0, 0));
+
+    // 预取中或已经预取好的下一个块
+    private final AtomicReference<CompletableFuture<Block>> nextBlock = new AtomicReference<>();
+
+    // 还有序号没完成的块，按起始序号排序
+    private final NavigableMap<Long, Block> liveBlocks = new ConcurrentSkipListMap<>();
+
+    // 超时被强制标记完成的段数
+    private final AtomicLong expiredSegments = new AtomicLong();
+
+    // 当前挡住水位的段的起始序号和开始挡住的时间，只在心跳线程上读写
+    private long blockingSegment = -1;
+
+    private long blockingSinceNanos;
+
+    // 心跳和预留都在这个线程上执行，计算水位时不会有预留了一半的块
+    private ScheduledExecutorService sequenceScheduler;
+
+    public ChangeSequenceGenerator(@Qualifier("changeLogChangeSequenceMapper") ChangeSequenceMapper changeSequenceMapper,
+                                   PlatformTransactionManager transactionManager,
+                                   ChangeLogProperties properties) {
+        this.changeSequenceMapper = changeSequenceMapper;
+        this.reserveTemplate = new TransactionTemplate(transactionManager);
+        this.reserveTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_NOT_SUPPORTED);
+        ChangeLogProperties.Sequence config = properties.getSequence();
+        this.sequenceName = config.getName();
+        this.blockSize = Math.max(1, config.getBlockSize());
+        this.heartbeatIntervalMillis = config.getHeartbeatInterval().toMillis();
+        this.instanceTimeoutSeconds = config.getInstanceTimeout().toSeconds();
+        this.reserveTimeoutMillis = config.getReserveTimeout().toMillis();
+        this.inFlightTimeoutNanos = config.getInFlightTimeout().toNanos();
+    }
+
+    @PostConstruct
+    public void start() {
+        sequenceScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ChangeSequence-");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sequenceScheduler.scheduleWithFixedDelay(this::refreshWatermark, 0, heartbeatIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        sequenceScheduler.shutdown();
+        try {
+            // 写入器已经先停止，还没完成的日志不会再写入，删掉水位让其他实例继续往前读
+            changeSequenceMapper.deleteWatermark(sequenceName, instanceId);
+        } catch (Exception e) {
+            log.warn("[Change Sequence] Failed to remove watermark of instance {}, it expires after {} seconds.",
+                    instanceId, instanceTimeoutSeconds, e);
+        }
+    }
+
+    /**
+     * 分配一个序号，分配后记为未完成，日志写入或放弃后需要调用 complete。
+     * 当前块用完且 reserve-timeout 内拿不到新块时返回 null
+     */
+    public Long next() {
+        while (true) {
+            Block block = currentBlock.get();
+            long value = block.allocate();
+            if (value >= 0) {
+                if (value == block.prefetchAt) {
+                    prefetch();
+                }
+                return value;
+            }
+            // 当前块用完了，换上预取的块
+            CompletableFuture<Block> future = prefetch();
+            Block reserved = awaitReserved(future);
+            if (reserved == null) {
+                return null;
+            }
+            if (currentBlock.compareAndSet(block, reserved)) {
+                nextBlock.compareAndSet(future, null);
+            }
+        }
+    }
+
+    /**
+     * 标记序号已完成：日志已经写入日志表或 outbox 表，或者事务没有提交、日志被合并、被丢弃，不会再有这个序号的日志写入。
+     * 同一个序号只能标记一次
+     */
+    public void complete(Long seq) {
+        if (seq == null) {
+            return;
+        }
+        Map.Entry<Long, Block> entry = liveBlocks.floorEntry(seq);
+        if (entry != null && seq < entry.getValue().end) {
+            entry.getValue().complete(seq);
+        }
+    }
+
+    /**
+     * 所有实例上小于等于返回值的序号都已经完成，按序号读取日志表时读到这里为止不会漏掉还没写入的日志
+     */
+    public long getSafeSeq() {
+        // 先读序列再读水位：读完序列之后才开始预留的块一定大于返回值，不需要出现在水位表中
+        Long nextValue = changeSequenceMapper.selectNextValue(sequenceName);
+        if (nextValue == null) {
+            return 0;
+        }
+        Long lowestWatermark = changeSequenceMapper.selectLowestWatermark(sequenceName, instanceTimeoutSeconds);
+        return lowestWatermark == null ? nextValue - 1 : Math.min(lowestWatermark, nextValue - 1);
+    }
+
+    /**
+     * 已经分出去还没完成的序号个数（估算）
+     */
+    public long getInFlightCount() {
+        return liveBlocks.values().stream().mapToLong(Block::inFlightCount).sum();
+    }
+
+    /**
+     * 当前挡住水位的段已经挡了多少秒，没有时为 0
+     */
+    public double getBlockedSeconds() {
+        long since = blockingSinceNanos;
+        return blockingSegment < 0 ? 0 : (System.nanoTime() - since) / 1_000_000_000.0;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("changelog.sequence.in.flight", this, ChangeSequenceGenerator::getInFlightCount)
+                .description("Number of change sequence numbers handed out whose update logs are not written yet")
+                .register(registry);
+        Gauge.builder("changelog.sequence.watermark.blocked.seconds", this, ChangeSequenceGenerator::getBlockedSeconds)
+                .description("How long the oldest unfinished change sequence segment has been holding the watermark back")
+                .register(registry);
+        FunctionCounter.builder("changelog.sequence.expired", expiredSegments, AtomicLong::get)
+                .description("Number of change sequence segments force-completed after changelog.sequence.in-flight-timeout")
+                .register(registry);
+    }
+
+    /**
+     * 立即刷新一次水位，在序号线程上执行，和预留串行
+     */
+    public void heartbeat() {
+        try {
+            sequenceScheduler.submit(this::refreshWatermark).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * 计算当前实例的水位写入水位表，并清理超时实例的水位
+     */
+    private void refreshWatermark() {
+        try {
+            // 先读序列，之后预留的块一定不小于这个值
+            Long nextValue = changeSequenceMapper.selectNextValue(sequenceName);
+            long watermark = computeWatermark(nextValue == null ? 1 : nextValue, true);
+            changeSequenceMapper.upsertWatermark(sequenceName, instanceId, watermark);
+            changeSequenceMapper.deleteExpiredWatermarks(sequenceName, instanceTimeoutSeconds);
+        } catch (Exception e) {
+            log.error("[Change Sequence] Failed to refresh watermark of instance {}.", instanceId, e);
+        }
+    }
+
+    /**
+     * 在序号线程上调用，返回当前实例的水位，之后分配的序号都大于它。
+     * heartbeat 为 true 时顺带清理已完成的块、放弃空闲的块、强制完成超时的段
+     */
+    private long computeWatermark(long nextValue, boolean heartbeat) {
+        for (Block block : new ArrayList<>(liveBlocks.values())) {
+            while (true) {
+                long segmentStart = block.lowestIncomplete();
+                if (segmentStart >= 0) {
+                    if (heartbeat && expireIfStuck(block, segmentStart)) {
+                        continue;
+                    }
+                    return segmentStart - 1;
+                }
+                if (block.isClosed()) {
+                    // 不会再分配，分出去的都完成了
+                    if (heartbeat) {
+                        liveBlocks.remove(block.start);
+                    }
+                    break;
+                }
+                if (heartbeat && nextValue >= block.end && block.isIdle()) {
+                    // 空闲的块，而其他实例（或自己的预取）已经预留了更大的块：放弃剩下的序号（留下空洞），
+                    // 否则空闲实例块中没分配的小序号会一直挡住其他实例的日志
+                    block.retire();
+                    continue;
+                }
+                if (heartbeat) {
+                    blockingSegment = -1;
+                }
+                return block.allocatedEnd() - 1;
+            }
+        }
+        if (heartbeat) {
+            blockingSegment = -1;
+        }
+        return nextValue - 1;
+    }
+
+    /**
+     * 同一段挡住水位超过 in-flight-timeout 时强制标记完成，返回是否强制了
+     */
+    private boolean expireIfStuck(Block block, long segmentStart) {
+        long now = System.nanoTime();
+        if (blockingSegment != segmentStart) {
+            blockingSegment = segmentStart;
+            blockingSinceNanos = now;
+            return false;
+        }
+        if (now - blockingSinceNanos < inFlightTimeoutNanos) {
+            return false;
+        }
+        // 还在分配的块先停止分配，这一段之后不会再有新序号
+        block.retire();
+        block.forceComplete(segmentStart);
+        expiredSegments.incrementAndGet();
+        blockingSegment = -1;
+        log.warn("[Change Sequence] Change sequences [{}, {}) not completed within {} ms, force-completed so the watermark can advance; "
+                        + "update logs of these sequences may be skipped by consumers resuming from change_seq.",
+                segmentStart, Math.min(segmentStart + SEGMENT_SIZE, block.end), TimeUnit.NANOSECONDS.toMillis(inFlightTimeoutNanos));
+        return true;
+    }
+
+    /**
+     * 启动下一个块的预留（已经在预留时直接返回），预留在序号线程上执行
+     */
+    private CompletableFuture<Block> prefetch() {
+        while (true) {
+            CompletableFuture<Block> future = nextBlock.get();
+            if (future != null) {
+                return future;
+            }
+            CompletableFuture<Block> created = new CompletableFuture<>();
+            if (nextBlock.compareAndSet(null, created)) {
+                try {
+                    sequenceScheduler.execute(() -> {
+                        try {
+                            created.complete(reserveTemplate.execute(status -> reserveBlock()));
+                        } catch (Exception e) {
+                            log.error("[Change Sequence] Failed to reserve change sequence block.", e);
+                            created.completeExceptionally(e);
+                        }
+                    });
+                } catch (Exception e) {
+                    created.completeExceptionally(e);
+                }
+                return created;
+            }
+        }
+    }
+
+    /**
+     * 最多等 reserve-timeout 拿预取的块，预留失败时清掉这次预取，下次重新预留
+     */
+    private Block awaitReserved(CompletableFuture<Block> future) {
+        try {
+            return future.get(reserveTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // 预留还在进行，下一次分配继续等它
+            return null;
+        } catch (ExecutionException e) {
+            nextBlock.compareAndSet(future, null);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * 从数据库预留一个新块 [start, start + blockSize)
+     */
+    private Block reserveBlock() {
+        for (int attempt = 0; attempt < MAX_RESERVE_ATTEMPTS; attempt++) {
+            Long start = changeSequenceMapper.selectNextValue(sequenceName);
+            if (start == null) {
+                // 第一次使用，初始化序列
+                changeSequenceMapper.insertIgnore(sequenceName, 1L);
+                continue;
+            }
+            // 预留之前先写一次水位，读到新序列值的消费方一定能在水位表中看到这个实例
+            changeSequenceMapper.upsertWatermark(sequenceName, instanceId, Math.min(computeWatermark(start, false), start - 1));
+            if (changeSequenceMapper.compareAndSet(sequenceName, start, start + blockSize) == 1) {
+                log.info("----- Reserved change sequence block [{}, {})", start, start + blockSize);
+                Block block = new Block(start, start + blockSize);
+                liveBlocks.put(start, block);
+                return block;
+            }
+        }
+        throw new IllegalStateException("Failed to reserve change sequence block after " + MAX_RESERVE_ATTEMPTS + " attempts.");
+    }
+
+    private static class Block {
+
+        private final long start;
+
+        private final long end;
+
+        // 分到这个序号时预取下一个块
+        private final long prefetchAt;
+
+        private final AtomicLong next;
+
+        // 每段已完成的序号个数
+        private final AtomicIntegerArray completed;
+
+        // 正在分配的线程数，放弃块时等它们分配完
+        private final AtomicInteger allocating = new AtomicInteger();
+
+        private volatile boolean retired;
+
+        // 上一次心跳时的分配位置，用来判断块是否空闲
+        private long lastSeenNext = -1;
+
+        Block(long start, long end) {
+            this.start = start;
+            this.end = end;
+            this.prefetchAt = start + (end - start) / 2;
+            this.next = new AtomicLong(start);
+            this.completed = new AtomicIntegerArray((int) ((end - start + SEGMENT_SIZE - 1) / SEGMENT_SIZE));
+        }
+
+        /**
+         * 分配一个序号，块已用完或已放弃时返回 -1
+         */
+        long allocate() {
+            allocating.incrementAndGet();
+            try {
+                if (retired) {
+                    return -1;
+                }
+                long value = next.getAndIncrement();
+                return value < end ? value : -1;
+            } finally {
+                allocating.decrementAndGet();
+            }
+        }
+
+        void complete(long seq) {
+            completed.incrementAndGet((int) ((seq - start) / SEGMENT_SIZE));
+        }
+
+        /**
+         * 已分配序号的上界（不含）
+         */
+        long allocatedEnd() {
+            return Math.min(next.get(), end);
+        }
+
+        boolean isClosed() {
+            return retired || next.get() >= end;
+        }
+
+        /**
+         * 和上一次心跳相比没有分配新的序号
+         */
+        boolean isIdle() {
+            long current = next.get();
+            boolean idle = current == lastSeenNext;
+            lastSeenNext = current;
+            return idle;
+        }
+
+        /**
+         * 停止分配，返回时已经没有线程在这个块上分配
+         */
+        void retire() {
+            retired = true;
+            while (allocating.get() > 0) {
+                Thread.onSpinWait();
+            }
+        }
+
+        void forceComplete(long segmentStart) {
+            completed.addAndGet((int) ((segmentStart - start) / SEGMENT_SIZE), SEGMENT_SIZE);
+        }
+
+        /**
+         * 第一段还有已分配序号没完成的段的起始序号，全部完成时返回 -1
+         */
+        long lowestIncomplete() {
+            // 先读完成数再读分配位置，读到的完成数对应的序号都在分配位置之前
+            int[] counts = new int[completed.length()];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = completed.get(i);
+            }
+            long allocatedEnd = allocatedEnd();
+            for (int i = 0; i < counts.length; i++) {
+                long segmentStart = start + (long) i * SEGMENT_SIZE;
+                if (segmentStart >= allocatedEnd) {
+                    return -1;
+                }
+                if (counts[i] < Math.min(segmentStart + SEGMENT_SIZE, allocatedEnd) - segmentStart) {
+                    return segmentStart;
+                }
+            }
+            return -1;
+        }
+
+        long inFlightCount() {
+            long allocatedEnd = allocatedEnd();
+            long pending = 0;
+            for (int i = 0; i < completed.length(); i++) {
+                long segmentStart = start + (long) i * SEGMENT_SIZE;
+                if (segmentStart >= allocatedEnd) {
+                    break;
+                }
+                pending += Math.max(0, Math.min(segmentStart + SEGMENT_SIZE, allocatedEnd) - segmentStart - completed.get(i));
+            }
+            return pending;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.yxw.dbchangelog.service;
+
+import com.yxw.dbchangelog.config.ChangeLogProperties;
+import com.yxw.dbchangelog.model.HotChange;
+import com.yxw.dbchangelog.util.StripedHeavyHitterTracker;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 热点表、热点行统计。
+ * 拦截器每捕获到一次更新就计数一次（包括之后回滚的，行锁等待和是否提交无关），
+ * 分别统计每张表和每一行 (表名, 主键) 在滑动窗口内的更新次数，用于排查 MySQL 锁等待时定位被频繁更新的表和行。
+ * 计数在业务线程上执行，按线程分成 changelog.hot.stripes 段，业务线程之间不会在同一把锁上排队。
+ * 通过 GET /update-logs/hot 查看，同时提供 changelog.hot.* 指标。
+ */
+@Service
+public class HotChangeTracker implements MeterBinder {
+
+    private final boolean enabled;
+
+    private final StripedHeavyHitterTracker tableTracker;
+
+    private final StripedHeavyHitterTracker rowTracker;
+
+    private final LongAdder capturedCount = new LongAdder();
+
+    public HotChangeTracker(ChangeLogProperties properties) {
+        ChangeLogProperties.Hot config = properties.getHot();
+        this.enabled = config.isEnabled();
+        long windowMillis = config.getWindow().toMillis();
+        this.tableTracker = new StripedHeavyHitterTracker(config.getStripes(), config.getDepth(), config.getWidth(), config.getSlices(),
+                windowMillis, config.getTopK());
+        this.rowTracker = new StripedHeavyHitterTracker(config.getStripes(), config.getDepth(), config.getWidth(), config.getSlices(),
+                windowMillis, config.getTopK());
+    }
+
+    /**
+     * 记录一次捕获到的更新
+     */
+    public void record(String tableName, Long primaryId) {
+        if (!enabled || tableName == null) {
+            return;
+        }
+        capturedCount.increment();
+        tableTracker.add(tableName);
+        if (primaryId != null) {
+            rowTracker.add(tableName + "#" + primaryId);
+        }
+    }
+
+    public List<HotChange> topTables(int n) {
+        return toHotChanges(tableTracker, n);
+    }
+
+    public List<HotChange> topRows(int n) {
+        return toHotChanges(rowTracker, n);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("changelog.changes.captured", capturedCount, LongAdder::sum)
+                .description("Number of captured update changes")
+                .register(registry);
+        Gauge.builder("changelog.hot.table.max", this, tracker -> maxCount(tracker.topTables(1)))
+                .description("Update count of the hottest table in the sliding window")
+                .register(registry);
+        Gauge.builder("changelog.hot.row.max", this, tracker -> maxCount(tracker.topRows(1)))
+                .description("Update count of the hottest row in the sliding window")
+                .register(registry);
+    }
+
+    private static List<HotChange> toHotChanges(StripedHeavyHitterTracker tracker, int n) {
+        return tracker.top(n).stream().map(entry -> new HotChange(entry.getKey(), entry.getValue())).toList();
+    }
+
+    private static double maxCount(List<HotChange> top) {
+        return top.isEmpty() ? 0 : top.get(0).getCount();
+    }
+}
@@ -0,0 +1,203 @@
+package com.yxw.dbchangelog.service;
+
+import com.yxw.dbchangelog.config.ChangeLogProperties;
+import com.yxw.dbchangelog.model.UpdateLog;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * 最近变更的内存索引。
+ * 按 (表名, 主键) 为每一行保存最近的若干条已提交变更（环形缓冲），所有行加起来的条数或估算的内存超过上限时淘汰最久没有变更的行。
+ * 保存的日志整理成和从日志表读出后一样的形式（没有日志ID），内存和查库返回的内容一致。
+ * 查询某一行某个时间之后的变更时，如果索引能保证这段时间内的变更都在内存中，直接从内存返回，不访问数据库。
+ * 每一行记录一个 coveredFrom：从这个时间开始该行的变更都在内存里。环形缓冲覆盖掉旧变更、或有行被淘汰后，coveredFrom 会相应后移。
+ * 索引只能看到本实例提交的变更，多实例部署时不能开启，所以默认关闭。
+ * 写入端合并（coalesce.window 大于 0）时日志表中同一行的多次变更会合并成一条，索引中的逐条变更和查库的结果不一致，这时不开启索引。
+ */
+@Slf4j
+@Service
+public class RecentChangeIndex {
+
+    private final boolean enabled;
+
+    private final long retentionMillis;
+
+    private final int perKeyCapacity;
+
+    private final int maxEntries;
+
+    private final long maxBytes;
+
+    private final StatementDictionaryService statementDictionaryService;
+
+    private final long startTime = System.currentTimeMillis();
+
+    // 按最近变更时间排序，最前面的是最久没有变更的行
+    private final LinkedHashMap<String, Ring> rings = new LinkedHashMap<>();
+
+    private int totalEntries;
+
+    private long totalBytes;
+
+    // 被淘汰的行中最新一条变更的时间，之后新建的环形缓冲只能保证这个时间之后的变更是完整的
+    private long evictedUpTo;
+
+    public RecentChangeIndex(ChangeLogProperties properties, StatementDictionaryService statementDictionaryService) {
+        ChangeLogProperties.Recent config = properties.getRecent();
+        boolean coalescing = !properties.getCoalesce().getWindow().isZero();
+        if (config.isEnabled() && coalescing) {
+            log.warn("----- changelog.recent.enabled is ignored because changelog.coalesce.window is set, recent changes are read from the database.");
+        }
+        this.enabled = config.isEnabled() && !coalescing;
+        this.retentionMillis = config.getRetention().toMillis();
+        this.perKeyCapacity = Math.max(1, config.getPerKeyCapacity());
+        this.maxEntries = Math.max(1, config.getMaxEntries());
+        this.maxBytes = Math.max(1, config.getMaxMemory().toBytes());
+        this.statementDictionaryService = statementDictionaryService;
+    }
+
+    /**
+     * 添加一条已提交的变更，保存的是副本，之后写入器对日志的修改不影响索引
+     */
+    public synchronized void add(UpdateLog updateLog) {
+        if (!enabled || updateLog.getTableName() == null || updateLog.getPrimaryId() == null) {
+            return;
+        }
+        UpdateLog copy = updateLog.toBuilder().build();
+        if (copy.getUpdateTime() == null) {
+            copy.setUpdateTime(new Date());
+        }
+        statementDictionaryService.normalize(copy);
+        String key = keyOf(copy.getTableName(), copy.getPrimaryId());
+        // 先移除再放回，让这一行排到最后
+        Ring ring = rings.remove(key);
+        if (ring == null) {
+            ring = new Ring(perKeyCapacity, Math.max(startTime, evictedUpTo + 1));
+        }
+        rings.put(key, ring);
+        long bytesBefore = ring.bytes;
+        if (ring.add(copy)) {
+            totalEntries++;
+        }
+        totalBytes += ring.bytes - bytesBefore;
+        evictIfNecessary();
+    }
+
+    /**
+     * 查询某一行在 since 之后的变更，内存中能完整回答时返回结果，否则返回 empty，需要查库
+     */
+    public synchronized Optional<List<UpdateLog>> query(String tableName, Long primaryId, Date since) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        long sinceMillis = since.getTime();
+        if (sinceMillis < System.currentTimeMillis() - retentionMillis) {
+            return Optional.empty();
+        }
+        Ring ring = rings.get(keyOf(tableName, primaryId));
+        long coveredFrom = ring != null ? ring.coveredFrom : Math.max(startTime, evictedUpTo + 1);
+        if (sinceMillis < coveredFrom) {
+            return Optional.empty();
+        }
+        return Optional.of(ring == null ? new ArrayList<>() : ring.since(sinceMillis));
+    }
+
+    /**
+     * 总条数或内存超过上限时淘汰最久没有变更的行，同时清理超过保留时间的行
+     */
+    private void evictIfNecessary() {
+        long expireBefore = System.currentTimeMillis() - retentionMillis;
+        Iterator<Map.Entry<String, Ring>> iterator = rings.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Ring eldest = iterator.next().getValue();
+            if (totalEntries <= maxEntries && totalBytes <= maxBytes && eldest.newestTime() >= expireBefore) {
+                break;
+            }
+            evictedUpTo = Math.max(evictedUpTo, eldest.newestTime());
+            totalEntries -= eldest.size;
+            totalBytes -= eldest.bytes;
+            iterator.remove();
+        }
+    }
+
+    private static String keyOf(String tableName, Long primaryId) {
+        return tableName + "#" + primaryId;
+    }
+
+    /**
+     * 估算一条日志占用的内存：对象和定长字段按 200 字节算，字符串按每个字符 2 字节算
+     */
+    static long estimateSize(UpdateLog updateLog) {
+        return 200 + 2L * (lengthOf(updateLog.getTableName()) + lengthOf(updateLog.getCommandType())
+                + lengthOf(updateLog.getFinalSql()) + lengthOf(updateLog.getBoundValues())
+                + lengthOf(updateLog.getParams()) + lengthOf(updateLog.getBeforeImage()));
+    }
+
+    private static int lengthOf(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    /**
+     * 单行的环形缓冲，按提交顺序保存最近的变更
+     */
+    private static class Ring {
+
+        private final UpdateLog[] entries;
+
+        // 下一个写入位置
+        private int next;
+
+        private int size;
+
+        // 缓冲中日志的估算内存
+        private long bytes;
+
+        // 从这个时间开始的变更都在缓冲中
+        private long coveredFrom;
+
+        Ring(int capacity, long coveredFrom) {
+            this.entries = new UpdateLog[capacity];
+            this.coveredFrom = coveredFrom;
+        }
+
+        /**
+         * 添加一条变更，缓冲未满时返回 true；缓冲已满时覆盖最旧的一条并返回 false
+         */
+        boolean add(UpdateLog updateLog) {
+            UpdateLog overwritten = entries[next];
+            entries[next] = updateLog;
+            next = (next + 1) % entries.length;
+            bytes += estimateSize(updateLog);
+            if (overwritten != null) {
+                bytes -= estimateSize(overwritten);
+                coveredFrom = Math.max(coveredFrom, overwritten.getUpdateTime().getTime() + 1);
+                return false;
+            }
+            size++;
+            return true;
+        }
+
+        long newestTime() {
+            return entries[Math.floorMod(next - 1, entries.length)].getUpdateTime().getTime();
+        }
+
+        List<UpdateLog> since(long sinceMillis) {
+            List<UpdateLog> result = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                UpdateLog updateLog = entries[Math.floorMod(next - size + i, entries.length)];
+                if (updateLog.getUpdateTime().getTime() >= sinceMillis) {
+                    result.add(updateLog);
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package com.yxw.dbchangelog.service;
+
+import cn.hutool.core.collection.ListUtil;
+import cn.hutool.core.util.IdUtil;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.yxw.dbchangelog.config.ChangeLogProperties;
+import com.yxw.dbchangelog.event.UpdateLogEvent;
+import com.yxw.dbchangelog.mapper.UpdateLogMapper;
+import com.yxw.dbchangelog.model.RevertJob;
+import com.yxw.dbchangelog.model.RevertRequest;
+import com.yxw.dbchangelog.model.UpdateLog;
+import com.yxw.dbchangelog.util.JsonUtils;
+import com.yxw.dbchangelog.util.SqlTemplateUtils;
+import jakarta.annotation.PreDestroy;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * 按时间窗口回滚变更。
+ * 1. 流式读取窗口内该表的日志，每一行取窗口内第一条（符合过滤条件的）变更的变更前镜像，作为回滚后的目标值，即这一行在窗口内的净逆变更；
+ * 2. 默认跳过有冲突的行，避免覆盖正常的修改：第一条符合条件的变更之后窗口内还有不符合条件的变更，或者窗口结束后又被修改过；
+ *    冲突只能从日志表中判断，窗口结束时间不能晚于安全序号处的提交时间，否则还在写入通道或 outbox 中的日志读不到，提交时直接拒绝；
+ * 3. 按主键排序后切成分块，多个分块并行执行，每个分块一个事务：锁定并查询当前数据（SELECT ... FOR UPDATE）、计算差异、
+ *    对有差异的行批量 UPDATE，回滚过程中业务对这些行的更新会等分块提交后再执行，不会被覆盖。
+ * 4. 每回滚一行发布一条变更日志，变更前镜像是回滚前的数据，和业务更新一样写入日志表，回滚本身也可以再回滚。
+ * 一个分块失败后不再执行还没开始的分块，已提交的分块记录在任务的 appliedRanges 中。
+ * dry-run 时只计算差异不更新。任务异步执行，通过 getJob 查看进度。
+ * 依赖变更前镜像，需要开启 changelog.capture.before-image。
+ */
+@Slf4j
+@Service
+public class RevertService {
+
+    // 表名、列名只允许字母数字下划线，防止拼接 SQL 时被注入
+    private static final Pattern IDENTIFIER_PATTERN = Pattern.compile("[A-Za-z0-9_]+");
+
+    // 最多保留的任务数
+    private static final int MAX_JOBS = 100;
+
+    // 回滚产生的变更日志使用的 statementId，开启模板字典时作为模板登记
+    private static final String REVERT_STATEMENT_ID = RevertService.class.getName() + ".revert";
+
+    private final UpdateLogMapper updateLogMapper;
+
+    private final UpdateLogQueryService updateLogQueryService;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final ChangeLogProperties.Revert config;
+
+    private final boolean statementDictionaryEnabled;
+
+    private final Map<String, RevertJob> jobs = Collections.synchronizedMap(new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, RevertJob> eldest) {
+            return size() > MAX_JOBS;
+        }
+    });
+
+    // 任务协调线程，一次执行一个回滚任务
+    private final ExecutorService jobExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "RevertJob-"));
+
+    // 分块执行线程
+    private final ExecutorService chunkExecutor;
+
+    public RevertService(@Qualifier("changeLogUpdateLogMapper") UpdateLogMapper updateLogMapper, UpdateLogQueryService updateLogQueryService,
+                         JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate, ApplicationEventPublisher eventPublisher,
+                         ChangeLogProperties properties) {
+        this.updateLogMapper = updateLogMapper;
+        this.updateLogQueryService = updateLogQueryService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.eventPublisher = eventPublisher;
+        this.config = properties.getRevert();
+        this.statementDictionaryEnabled = properties.getStatementDictionary().isEnabled();
+        this.chunkExecutor = Executors.newFixedThreadPool(Math.max(1, config.getParallelism()), r -> new Thread(r, "RevertChunk-"));
+    }
+
+    @PreDestroy
+    public void stop() {
+        jobExecutor.shutdownNow();
+        chunkExecutor.shutdownNow();
+    }
+
+    /**
+     * 提交一个回滚任务，立即返回任务，任务在后台执行
+     */
+    public RevertJob submit(RevertRequest request) {
+        if (request.getTableName() == null || !IDENTIFIER_PATTERN.matcher(request.getTableName()).matches()) {
+            throw new IllegalArgumentException("Invalid table name: " + request.getTableName());
+        }
+        if (request.getFrom() == null || request.getTo() == null || request.getFrom().after(request.getTo())) {
+            throw new IllegalArgumentException("Invalid time window: " + request.getFrom() + " - " + request.getTo());
+        }
+        // 安全序号之后的日志可能还在写入通道或 outbox 中，窗口不能超过安全序号处的提交时间
+        Date safeCommitTime = updateLogQueryService.getSafeCommitTime();
+        if (safeCommitTime == null || request.getTo().after(safeCommitTime)) {
+            throw new IllegalArgumentException("Window end " + request.getTo() + " is later than " + safeCommitTime
+                    + ", the commit time of the last update log covered by the safe change_seq, later logs may not be written yet");
+        }
+        RevertJob job = new RevertJob();
+        job.setJobId(IdUtil.fastSimpleUUID());
+        job.setRequest(request);
+        job.setStartTime(new Date());
+        jobs.put(job.getJobId(), job);
+        jobExecutor.submit(() -> run(job));
+        return job;
+    }
+
+    public RevertJob getJob(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    private void run(RevertJob job) {
+        RevertRequest request = job.getRequest();
+        job.setStatus(RevertJob.Status.RUNNING);
+        try {
+            Set<Long> conflicts = new HashSet<>();
+            Map<Long, String> targets = collectTargets(job, conflicts);
+            if (!request.isForce()) {
+                // 窗口内有不符合条件的后续变更、窗口结束后又被修改过的行跳过
+                conflicts.addAll(updateLogMapper.selectPrimaryIdsChangedAfter(request.getTableName(), request.getTo()));
+                int before = targets.size();
+                targets.keySet().removeAll(conflicts);
+                job.setConflictRows(before - targets.size());
+            }
+            List<Long> primaryIds = new ArrayList<>(targets.keySet());
+            Collections.sort(primaryIds);
+            job.setTotalRows(primaryIds.size());
+            log.info("----- Revert job {} started, table: {}, rows: {}, dryRun: {}", job.getJobId(), request.getTableName(),
+                    primaryIds.size(), request.isDryRun());
+
+            // 按主键范围切块并行执行，一个分块失败后还没开始的分块直接跳过
+            AtomicBoolean aborted = new AtomicBoolean();
+            List<Future<?>> futures = new ArrayList<>();
+            for (List<Long> chunk : ListUtil.partition(primaryIds, Math.max(1, config.getChunkSize()))) {
+                futures.add(chunkExecutor.submit(() -> {
+                    try {
+                        revertChunk(job, chunk, targets, aborted);
+                    } catch (RuntimeException e) {
+                        aborted.set(true);
+                        throw e;
+                    }
+                }));
+            }
+            // 等所有分块结束（执行中的分块提交或回滚、没开始的跳过），appliedRanges 才是准确的
+            ExecutionException failure = null;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            job.setStatus(RevertJob.Status.COMPLETED);
+            log.info("----- Revert job {} completed, processed: {}, changed: {}, conflicts: {}, missing before image: {}",
+                    job.getJobId(), job.getProcessedRows(), job.getChangedRows(), job.getConflictRows(), job.getMissingImageRows());
+        } catch (Exception e) {
+            job.setStatus(RevertJob.Status.FAILED);
+            Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+            job.setError(cause.toString());
+            log.error("[Revert] Revert job {} failed, applied ranges: {}", job.getJobId(), job.getAppliedRanges(), cause);
+        } finally {
+            job.setEndTime(new Date());
+        }
+    }
+
+    /**
+     * 流式读取窗口内的日志，每一行只保留窗口内第一条符合过滤条件的变更的变更前镜像，
+     * 这条变更之后还有不符合过滤条件的变更的行放入 conflicts，回滚到目标值会把这些变更一起覆盖
+     */
+    private Map<Long, String> collectTargets(RevertJob job, Set<Long> conflicts) {
+        RevertRequest request = job.getRequest();
+        Map<Long, String> targets = new HashMap<>();
+        Set<Long> missingImage = new HashSet<>();
+        updateLogMapper.scanByTimeRange(request.getTableName(), request.getFrom(), request.getTo(), context -> {
+            UpdateLog updateLog = context.getResultObject();
+            Long primaryId = updateLog.getPrimaryId();
+            if (primaryId == null || missingImage.contains(primaryId)) {
+                return;
+            }
+            boolean matches = matchesFilter(request.getFilter(), updateLog.getParams());
+            if (targets.containsKey(primaryId)) {
+                if (!matches) {
+                    conflicts.add(primaryId);
+                }
+                return;
+            }
+            if (!matches) {
+                return;
+            }
+            if (updateLog.getBeforeImage() == null) {
+                missingImage.add(primaryId);
+            } else {
+                targets.put(primaryId, updateLog.getBeforeImage());
+            }
+        });
+        job.setMissingImageRows(missingImage.size());
+        return targets;
+    }
+
+    /**
+     * 一个分块一个事务：锁定并查询当前数据，和目标值比较，有差异的行批量更新并发布变更日志（dry-run 时只记录差异）
+     */
+    private void revertChunk(RevertJob job, List<Long> chunk, Map<Long, String> targets, AtomicBoolean aborted) {
+        if (aborted.get()) {
+            return;
+        }
+        RevertRequest request = job.getRequest();
+        String tableName = request.getTableName();
+        transactionTemplate.executeWithoutResult(status -> {
+            Map<Long, Map<String, Object>> currentRows = selectCurrentRows(tableName, chunk, !request.isDryRun());
+            // SET 的列相同的行放在一起批量更新，同一张表的变更前镜像一般只有一组列
+            Map<List<String>, List<Object[]>> updates = new LinkedHashMap<>();
+            Map<List<String>, List<Map<String, Object>>> currentImages = new HashMap<>();
+            for (Long primaryId : chunk) {
+                Map<String, Object> current = currentRows.get(primaryId);
+                if (current == null) {
+                    // 行已经被删除，无法回滚
+                    continue;
+                }
+                Map<String, Object> target = readImage(targets.get(primaryId));
+                Map<String, Object[]> changes = diff(current, target);
+                if (changes.isEmpty()) {
+                    continue;
+                }
+                job.getChangedRows().incrementAndGet();
+                if (job.getDiffs().size() < config.getMaxDiffRows()) {
+                    RevertJob.RowDiff rowDiff = new RevertJob.RowDiff();
+                    rowDiff.setPrimaryId(primaryId);
+                    rowDiff.setChanges(changes);
+                    job.getDiffs().add(rowDiff);
+                }
+                List<String> columns = target.keySet().stream().filter(column -> !"id".equals(column)).sorted().toList();
+                Object[] args = new Object[columns.size() + 1];
+                for (int i = 0; i < columns.size(); i++) {
+                    args[i] = target.get(columns.get(i));
+                }
+                args[columns.size()] = primaryId;
+                updates.computeIfAbsent(columns, key -> new ArrayList<>()).add(args);
+                currentImages.computeIfAbsent(columns, key -> new ArrayList<>()).add(current);
+            }
+            if (!request.isDryRun()) {
+                updates.forEach((columns, args) -> {
+                    String sql = buildUpdateSql(tableName, columns);
+                    int[] rowsAffected = jdbcTemplate.batchUpdate(sql, args);
+                    List<Map<String, Object>> images = currentImages.get(columns);
+                    for (int i = 0; i < args.size(); i++) {
+                        publishRevertLog(job, tableName, sql, columns, args.get(i), images.get(i), rowsAffected[i]);
+                    }
+                });
+            }
+        });
+        job.getProcessedRows().addAndGet(chunk.size());
+        if (!request.isDryRun()) {
+            job.getAppliedRanges().add(new RevertJob.IdRange(chunk.get(0), chunk.get(chunk.size() - 1)));
+        }
+    }
+
+    /**
+     * 为回滚的一行发布变更日志，在分块事务提交后和业务更新一样写入日志表
+     */
+    private void publishRevertLog(RevertJob job, String tableName, String sql, List<String> columns, Object[] args,
+                                  Map<String, Object> current, int rowsAffected) {
+        List<String> literals = Arrays.stream(args).map(RevertService::toSqlLiteral).toList();
+        Map<String, Object> params = new LinkedHashMap<>();
+        for (int i = 0; i < columns.size(); i++) {
+            params.put(columns.get(i), args[i]);
+        }
+        params.put("revertJobId", job.getJobId());
+        UpdateLog updateLog = UpdateLog.builder().tableName(tableName).primaryId((Long) args[columns.size()]).commandType("UPDATE")
+                .finalSql(SqlTemplateUtils.render(sql, literals)).statementId(REVERT_STATEMENT_ID).sqlTemplate(sql)
+                .boundValues(statementDictionaryEnabled ? JsonUtils.toJson(literals) : null)
+                .params(JsonUtils.toJson(params)).beforeImage(JsonUtils.toJson(current))
+                .rowAffect(rowsAffected).mergeCount(1).build();
+        eventPublisher.publishEvent(new UpdateLogEvent(this, updateLog));
+    }
+
+    private static String toSqlLiteral(Object value) {
+        if (value == null) {
+            return "null";
+        }
+        return value instanceof String ? "'" + value + "'" : value.toString();
+    }
+
+    private Map<Long, Map<String, Object>> selectCurrentRows(String tableName, List<Long> primaryIds, boolean forUpdate) {
+        String placeholders = primaryIds.stream().map(id -> "?").collect(Collectors.joining(","));
+        // 真正回滚时锁定这些行，查询和更新之间业务的修改不会被覆盖
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                "SELECT * FROM " + tableName + " WHERE id IN (" + placeholders + ")" + (forUpdate ? " FOR UPDATE" : ""),
+                primaryIds.toArray());
+        Map<Long, Map<String, Object>> result = new HashMap<>();
+        for (Map<String, Object> row : rows) {
+            Map<String, Object> lowerCaseRow = new LinkedHashMap<>();
+            row.forEach((column, value) -> lowerCaseRow.put(column.toLowerCase(Locale.ROOT), value));
+            // 当前数据也转一次 json，和变更前镜像使用同样的表示方式再比较
+            Map<String, Object> normalized = readImage(JsonUtils.toJson(lowerCaseRow));
+            result.put(((Number) normalized.get("id")).longValue(), normalized);
+        }
+        return result;
+    }
+
+    private static Map<String, Object[]> diff(Map<String, Object> current, Map<String, Object> target) {
+        Map<String, Object[]> changes = new LinkedHashMap<>();
+        target.forEach((column, targetValue) -> {
+            Object currentValue = current.get(column);
+            if (!valueEquals(currentValue, targetValue)) {
+                changes.put(column, new Object[]{currentValue, targetValue});
+            }
+        });
+        return changes;
+    }
+
+    private static boolean valueEquals(Object a, Object b) {
+        if (a instanceof Number && b instanceof Number) {
+            return new BigDecimal(a.toString()).compareTo(new BigDecimal(b.toString())) == 0;
+        }
+        return Objects.equals(a, b);
+    }
+
+    private static String buildUpdateSql(String tableName, List<String> columns) {
+        for (String column : columns) {
+            if (!IDENTIFIER_PATTERN.matcher(column).matches()) {
+                throw new IllegalArgumentException("Invalid column name in before image: " + column);
+            }
+        }
+        return "UPDATE " + tableName + " SET " + columns.stream().map(column -> column + " = ?").collect(Collectors.joining(", "))
+                + " WHERE id = ?";
+    }
+
+    private static boolean matchesFilter(Map<String, Object> filter, String params) {
+        if (filter == null || filter.isEmpty()) {
+            return true;
+        }
+        Map<String, Object> values = JsonUtils.jsonToObject(params, new TypeReference<Map<String, Object>>() {
+        });
+        if (values == null) {
+            return false;
+        }
+        for (Map.Entry<String, Object> entry : filter.entrySet()) {
+            if (!Objects.equals(String.valueOf(entry.getValue()), String.valueOf(values.get(entry.getKey())))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 解析变更前镜像，小数解析成 BigDecimal，避免精度丢失
+     */
+    @SneakyThrows
+    private static Map<String, Object> readImage(String json) {
+        ObjectReader reader = JsonUtils.getObjectMapper().readerFor(new TypeReference<Map<String, Object>>() {
+        }).with(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS);
+        return reader.readValue(json);
+    }
+}
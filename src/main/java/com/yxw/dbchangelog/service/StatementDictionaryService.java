@@ -0,0 +1,123 @@
+package com.yxw.dbchangelog.service;
+
+import cn.hutool.core.util.HashUtil;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.yxw.dbchangelog.config.ChangeLogProperties;
+import com.yxw.dbchangelog.mapper.StatementDictionaryMapper;
+import com.yxw.dbchangelog.model.StatementDictionary;
+import com.yxw.dbchangelog.model.UpdateLog;
+import com.yxw.dbchangelog.util.JsonUtils;
+import com.yxw.dbchangelog.util.SqlTemplateUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SQL 模板字典。
+ * 系统里不同的 UPDATE 语句只有少数几条，日志表每行都存完整的 final_sql 很浪费。
+ * 开启后同一个 (MappedStatement ID, SQL模板) 只在 statement_dictionary 中存一份，日志只存模板ID和绑定值，
+ * 读取日志时再用模板和绑定值还原完整SQL。
+ * 模板在调用方的事务之外登记（挂起当前事务、自动提交），outbox 搬运的事务回滚时已登记的模板不会跟着回滚，
+ * 内存中缓存的模板ID一定在字典表中有对应的行。
+ */
+@Slf4j
+@Service
+public class StatementDictionaryService {
+
+    private final StatementDictionaryMapper statementDictionaryMapper;
+
+    private final boolean enabled;
+
+    // 挂起调用方的事务登记模板
+    private final TransactionTemplate registerTemplate;
+
+    // 已登记的模板，key 为模板ID，同时作为读取时的模板缓存
+    private final Map<Long, String> knownTemplates = new ConcurrentHashMap<>();
+
+    public StatementDictionaryService(@Qualifier("changeLogStatementDictionaryMapper") StatementDictionaryMapper statementDictionaryMapper,
+                                      PlatformTransactionManager transactionManager, ChangeLogProperties properties) {
+        this.statementDictionaryMapper = statementDictionaryMapper;
+        this.registerTemplate = new TransactionTemplate(transactionManager);
+        this.registerTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_NOT_SUPPORTED);
+        this.enabled = properties.getStatementDictionary().isEnabled();
+    }
+
+    /**
+     * 计算模板ID，同样的 MappedStatement ID 和模板在任何节点、任何时候算出来都一样
+     */
+    public static long hashOf(String statementId, String sqlTemplate) {
+        return HashUtil.cityHash64((statementId + "\n" + sqlTemplate).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 写库前调用：开启模板字典时登记模板（已知的模板直接走内存缓存），日志中只保留模板ID和绑定值。
+     * 关闭时日志只保存 final_sql，UpdateLogAspect 不会生成绑定值。
+     */
+    public void compact(UpdateLog updateLog) {
+        if (!enabled || updateLog.getSqlTemplate() == null || updateLog.getStatementId() == null) {
+            return;
+        }
+        long id = hashOf(updateLog.getStatementId(), updateLog.getSqlTemplate());
+        if (!knownTemplates.containsKey(id)) {
+            // 多个节点或线程同时登记同一个模板时，insert ignore 保证只有一份；
+            // 在调用方的事务之外提交后再放入缓存，调用方回滚时缓存中也不会留下字典表中没有的模板
+            StatementDictionary statementDictionary = StatementDictionary.builder().id(id)
+                    .statementId(updateLog.getStatementId()).sqlTemplate(updateLog.getSqlTemplate()).build();
+            registerTemplate.executeWithoutResult(status -> statementDictionaryMapper.insertIgnore(statementDictionary));
+            knownTemplates.put(id, updateLog.getSqlTemplate());
+            log.info("----- Registered sql template {} for statement {}", id, updateLog.getStatementId());
+        }
+        updateLog.setStatementHash(id);
+        updateLog.setFinalSql(null);
+    }
+
+    /**
+     * 把没有经过写库的日志整理成和从日志表读出、还原后一样的形式：开启模板字典时带上模板ID，只在内存中的字段清空
+     */
+    public void normalize(UpdateLog updateLog) {
+        if (enabled && updateLog.getSqlTemplate() != null && updateLog.getStatementId() != null) {
+            updateLog.setStatementHash(hashOf(updateLog.getStatementId(), updateLog.getSqlTemplate()));
+        }
+        updateLog.setStatementId(null);
+        updateLog.setSqlTemplate(null);
+        restoreFinalSql(updateLog);
+    }
+
+    /**
+     * 读取日志时调用：final_sql 没有落库的日志，用模板和绑定值还原完整SQL
+     */
+    public void restoreFinalSql(UpdateLog updateLog) {
+        if (updateLog.getFinalSql() != null || updateLog.getStatementHash() == null) {
+            return;
+        }
+        String template = getTemplate(updateLog.getStatementHash());
+        if (template == null) {
+            log.error("----- Sql template {} not found in statement_dictionary.", updateLog.getStatementHash());
+            return;
+        }
+        List<String> values = JsonUtils.jsonToObject(updateLog.getBoundValues(), new TypeReference<List<String>>() {
+        });
+        updateLog.setFinalSql(SqlTemplateUtils.render(template, values));
+    }
+
+    private String getTemplate(Long id) {
+        String template = knownTemplates.get(id);
+        if (template != null) {
+            return template;
+        }
+        StatementDictionary statementDictionary = statementDictionaryMapper.selectById(id);
+        if (statementDictionary == null) {
+            return null;
+        }
+        knownTemplates.put(id, statementDictionary.getSqlTemplate());
+        return statementDictionary.getSqlTemplate();
+    }
+}
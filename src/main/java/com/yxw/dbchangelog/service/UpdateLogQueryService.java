@@ -0,0 +1,106 @@
+package com.yxw.dbchangelog.service;
+
+import com.yxw.dbchangelog.config.ChangeLogProperties;
+import com.yxw.dbchangelog.mapper.UpdateLogMapper;
+import com.yxw.dbchangelog.mapper.UpdateLogOutboxMapper;
+import com.yxw.dbchangelog.model.UpdateLog;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * 变更日志查询
+ */
+@Service
+public class UpdateLogQueryService {
+
+    private final UpdateLogMapper updateLogMapper;
+
+    private final StatementDictionaryService statementDictionaryService;
+
+    private final RecentChangeIndex recentChangeIndex;
+
+    private final ChangeSequenceGenerator changeSequenceGenerator;
+
+    private final UpdateLogOutboxMapper outboxMapper;
+
+    private final boolean outboxMode;
+
+    public UpdateLogQueryService(@Qualifier("changeLogUpdateLogMapper") UpdateLogMapper updateLogMapper, StatementDictionaryService statementDictionaryService,
+                                 RecentChangeIndex recentChangeIndex, ChangeSequenceGenerator changeSequenceGenerator,
+                                 UpdateLogOutboxMapper outboxMapper, ChangeLogProperties properties) {
+        this.updateLogMapper = updateLogMapper;
+        this.statementDictionaryService = statementDictionaryService;
+        this.recentChangeIndex = recentChangeIndex;
+        this.changeSequenceGenerator = changeSequenceGenerator;
+        this.outboxMapper = outboxMapper;
+        this.outboxMode = properties.getMode() == ChangeLogProperties.Mode.OUTBOX;
+    }
+
+    /**
+     * 查询某一行的全部变更日志，按写入顺序返回
+     */
+    public List<UpdateLog> getLogsByPrimaryId(String tableName, Long primaryId) {
+        List<UpdateLog> logs = updateLogMapper.selectByPrimaryId(tableName, primaryId);
+        // 只存了模板ID的日志，还原出完整SQL
+        logs.forEach(statementDictionaryService::restoreFinalSql);
+        return logs;
+    }
+
+    /**
+     * 按变更序号顺序读取 afterSeq 之后的日志，消费方记录最后一条的 changeSeq 作为下次读取的位置。
+     * 序号可能有空洞，不要求连续。日志写入日志表的顺序和序号顺序不一致，只返回到安全序号为止的日志，
+     * 更大的序号之前可能还有没写入的日志，下次再读。
+     */
+    public List<UpdateLog> getLogsAfterSeq(Long afterSeq, int limit) {
+        long upToSeq = getSafeSeq();
+        if (upToSeq <= afterSeq) {
+            return new ArrayList<>();
+        }
+        List<UpdateLog> logs = updateLogMapper.selectAfterSeq(afterSeq, upToSeq, limit);
+        logs.forEach(statementDictionaryService::restoreFinalSql);
+        return logs;
+    }
+
+    /**
+     * 日志表中小于等于返回值的序号都已经写入（或者确定不会写入），还在写入通道或 outbox 中的日志序号都大于它
+     */
+    public long getSafeSeq() {
+        long safeSeq = changeSequenceGenerator.getSafeSeq();
+        if (outboxMode) {
+            // outbox 中还没搬运的日志也不能跳过，在序号水位之后读，读完水位时已经提交到 outbox 的日志要么还在 outbox，要么已经在日志表
+            Long lowestOutboxSeq = outboxMapper.selectLowestChangeSeq();
+            if (lowestOutboxSeq != null) {
+                safeSeq = Math.min(safeSeq, lowestOutboxSeq - 1);
+            }
+        }
+        return safeSeq;
+    }
+
+    /**
+     * 安全序号处最后一条日志的提交时间，在这之前提交的日志都已经在日志表中；还没有日志时返回 null
+     */
+    public Date getSafeCommitTime() {
+        return updateLogMapper.selectUpdateTimeUpToSeq(getSafeSeq());
+    }
+
+    /**
+     * 查询某一行在 since 之后的变更，最近变更的内存索引能完整回答时不访问数据库
+     */
+    public List<UpdateLog> getRecentLogs(String tableName, Long primaryId, Date since) {
+        Optional<List<UpdateLog>> recent = recentChangeIndex.query(tableName, primaryId, since);
+        if (recent.isPresent()) {
+            // 内存中的日志写入索引时已经整理成查库后的形式，这里和查库结果走同样的还原
+            List<UpdateLog> logs = recent.get();
+            logs.forEach(statementDictionaryService::restoreFinalSql);
+            return logs;
+        }
+        List<UpdateLog> logs = updateLogMapper.selectByPrimaryIdSince(tableName, primaryId, since);
+        logs.forEach(statementDictionaryService::restoreFinalSql);
+        return logs;
+    }
+}
@@ -0,0 +1,226 @@
+package com.yxw.dbchangelog.sink;
+
+import com.yxw.dbchangelog.config.ChangeLogProperties;
+import com.yxw.dbchangelog.mapper.UpdateLogMapper;
+import com.yxw.dbchangelog.model.UpdateLog;
+import com.yxw.dbchangelog.service.ChangeSequenceGenerator;
+import com.yxw.dbchangelog.service.StatementDictionaryService;
+import com.yxw.dbchangelog.util.JsonUtils;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按行分道的日志写入器。
+ * 日志按 (表名, 主键) 哈希到 N 个写入通道，每个通道只有一个线程消费，批量写库。
+ * 同一行的日志总是进入同一个通道，按序号顺序写入；不同行的日志在多个通道上并行写入。
+ * 批量写入失败时逐条重试，仍然失败的日志和通道满时丢弃的日志写到死信日志（logger 名为 changelog.dead-letter），
+ * 可以单独配置输出到文件，事后补录。
+ * 日志写入、进入死信或被丢弃后都会把序号标记为完成，按序号续读的水位不会被卡住，死信中的日志需要单独补录。
+ */
+@Slf4j
+@Component
+public class StripedLogWriter implements MeterBinder {
+
+    // 死信日志，记录最终没有写入日志表的日志
+    private static final Logger DEAD_LETTER_LOG = LoggerFactory.getLogger("changelog.dead-letter");
+
+    private final UpdateLogMapper logMapper;
+
+    private final StatementDictionaryService statementDictionaryService;
+
+    private final ChangeSequenceGenerator changeSequenceGenerator;
+
+    private final ChangeLogProperties.Writer config;
+
+    private final List<Lane> lanes = new ArrayList<>();
+
+    // 通道队列满时丢弃的日志数
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    // 逐条重试后仍然写入失败的日志数
+    private final AtomicLong deadLetterCount = new AtomicLong();
+
+    private volatile boolean running;
+
+    public StripedLogWriter(@Qualifier("changeLogUpdateLogMapper") UpdateLogMapper logMapper,
+                            StatementDictionaryService statementDictionaryService, ChangeSequenceGenerator changeSequenceGenerator,
+                            ChangeLogProperties properties) {
+        this.logMapper = logMapper;
+        this.statementDictionaryService = statementDictionaryService;
+        this.changeSequenceGenerator = changeSequenceGenerator;
+        this.config = properties.getWriter();
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        int laneCount = Math.max(1, config.getLanes());
+        for (int i = 0; i < laneCount; i++) {
+            Lane lane = new Lane(i, new LinkedBlockingQueue<>(config.getQueueCapacity()));
+            lanes.add(lane);
+            lane.thread.start();
+        }
+        log.info("----- Striped update log writer started with {} lanes.", laneCount);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        for (Lane lane : lanes) {
+            lane.thread.interrupt();
+        }
+        for (Lane lane : lanes) {
+            lane.thread.join(TimeUnit.SECONDS.toMillis(30));
+            // 线程退出后把队列中剩余的日志写掉
+            lane.drainAndWrite();
+        }
+    }
+
+    /**
+     * 提交一条日志到对应的通道。
+     * 通道队列满时按 changelog.writer.overflow 处理：block 等待通道有空位（会阻塞提交事务的业务线程），drop 丢弃并写死信日志
+     */
+    public void submit(UpdateLog updateLog) {
+        Lane lane = lanes.get(Math.floorMod(Objects.hash(updateLog.getTableName(), updateLog.getPrimaryId()), lanes.size()));
+        boolean accepted = config.getOverflow() == ChangeLogProperties.Overflow.BLOCK
+                ? offerBlocking(lane.queue, updateLog) : lane.queue.offer(updateLog);
+        if (!accepted) {
+            rejectedCount.incrementAndGet();
+            DEAD_LETTER_LOG.error("[Log Writer] Lane {} is full, update log dropped: {}", lane.index, JsonUtils.toJson(updateLog));
+            changeSequenceGenerator.complete(updateLog.getChangeSeq());
+        }
+    }
+
+    /**
+     * 等待通道有空位，写入器已经停止或线程被中断时放弃
+     */
+    private boolean offerBlocking(BlockingQueue<UpdateLog> queue, UpdateLog updateLog) {
+        try {
+            while (!queue.offer(updateLog, 1, TimeUnit.SECONDS)) {
+                if (!running) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * 所有通道中还没写库的日志数
+     */
+    public int getPendingCount() {
+        return lanes.stream().mapToInt(lane -> lane.queue.size()).sum();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public long getDeadLetterCount() {
+        return deadLetterCount.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("changelog.writer.pending", this, StripedLogWriter::getPendingCount)
+                .description("Number of update logs waiting in the writer lanes")
+                .register(registry);
+        FunctionCounter.builder("changelog.writer.rejected", rejectedCount, AtomicLong::get)
+                .description("Number of update logs dropped because a writer lane was full")
+                .register(registry);
+        FunctionCounter.builder("changelog.writer.dead.letters", deadLetterCount, AtomicLong::get)
+                .description("Number of update logs that could not be written after retrying one by one")
+                .register(registry);
+    }
+
+    private void writeBatch(List<UpdateLog> batch) {
+        // 同一批中同一行的日志按序号写入
+        batch.sort(Comparator.comparing(UpdateLog::getChangeSeq, Comparator.nullsLast(Comparator.naturalOrder())));
+        try {
+            batch.forEach(statementDictionaryService::compact);
+            logMapper.insertLogs(batch);
+            batch.forEach(updateLog -> changeSequenceGenerator.complete(updateLog.getChangeSeq()));
+        } catch (Exception e) {
+            // 一条坏数据（例如 final_sql 超长）会导致整批失败，逐条重试，只丢坏的那条
+            log.warn("[Log Writer] Failed to insert {} update logs in one batch, retrying one by one.", batch.size(), e);
+            batch.forEach(this::writeOne);
+        }
+    }
+
+    private void writeOne(UpdateLog updateLog) {
+        try {
+            statementDictionaryService.compact(updateLog);
+            logMapper.insertLog(updateLog);
+        } catch (Exception e) {
+            deadLetterCount.incrementAndGet();
+            DEAD_LETTER_LOG.error("[Log Writer] Failed to insert update log: {}", JsonUtils.toJson(updateLog), e);
+        } finally {
+            changeSequenceGenerator.complete(updateLog.getChangeSeq());
+        }
+    }
+
+    private class Lane implements Runnable {
+
+        private final int index;
+
+        private final BlockingQueue<UpdateLog> queue;
+
+        private final Thread thread;
+
+        Lane(int index, BlockingQueue<UpdateLog> queue) {
+            this.index = index;
+            this.queue = queue;
+            this.thread = new Thread(this, "ChangeLogWriter-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            List<UpdateLog> batch = new ArrayList<>(config.getBatchSize());
+            while (running) {
+                try {
+                    UpdateLog first = queue.poll(1, TimeUnit.SECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, config.getBatchSize() - 1);
+                    writeBatch(batch);
+                    batch.clear();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        void drainAndWrite() {
+            List<UpdateLog> batch = new ArrayList<>(config.getBatchSize());
+            while (queue.drainTo(batch, config.getBatchSize()) > 0) {
+                writeBatch(batch);
+                batch.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.yxw.dbchangelog.sink;
+
+import com.yxw.dbchangelog.config.ChangeLogProperties;
+import com.yxw.dbchangelog.model.UpdateLog;
+import com.yxw.dbchangelog.service.ChangeSequenceGenerator;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 写入端的更新日志合并器。
+ * 在配置的时间窗口内，对同一行 (表名, 主键) 的多条日志只保留一条：保留序号最小的一条的变更前镜像，其余取序号最大的一条的，
+ * 窗口结束时统一交给写入器写库。日志到达的顺序不一定是提交顺序，所以先后按变更序号(change_seq)判断。热点行每秒被更新很多次时，可以明显减少日志表的写入量。
+ * 窗口为 0 时不做合并，日志直接交给写入器。
+ */
+@Slf4j
+@Component
+public class UpdateLogCoalescer {
+
+    private final StripedLogWriter writer;
+
+    private final ChangeSequenceGenerator changeSequenceGenerator;
+
+    private final Duration window;
+
+    // 当前窗口内待写入的日志，key 为 表名#主键
+    private final Map<String, UpdateLog> pending = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService flushScheduler;
+
+    public UpdateLogCoalescer(StripedLogWriter writer, ChangeSequenceGenerator changeSequenceGenerator, ChangeLogProperties properties) {
+        this.writer = writer;
+        this.changeSequenceGenerator = changeSequenceGenerator;
+        this.window = properties.getCoalesce().getWindow();
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!isWindowEnabled()) {
+            return;
+        }
+        flushScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "UpdateLogCoalescer-");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long windowMillis = window.toMillis();
+        flushScheduler.scheduleWithFixedDelay(this::flush, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+        log.info("----- Update log coalescing window enabled: {} ms", windowMillis);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (flushScheduler != null) {
+            flushScheduler.shutdown();
+            // 关闭前把窗口中剩余的日志写掉，避免丢失
+            flush();
+        }
+    }
+
+    /**
+     * 接收一条已提交事务的日志，开启窗口时先放入窗口合并，否则直接交给写入器
+     */
+    public void offer(UpdateLog updateLog) {
+        if (!isWindowEnabled() || updateLog.getTableName() == null || updateLog.getPrimaryId() == null) {
+            writer.submit(updateLog);
+            return;
+        }
+        String key = updateLog.getTableName() + "#" + updateLog.getPrimaryId();
+        pending.merge(key, updateLog, this::coalesce);
+    }
+
+    /**
+     * 把当前窗口中的日志全部交给写入器
+     */
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<UpdateLog> logs = new ArrayList<>(pending.size());
+        for (String key : pending.keySet()) {
+            // remove 和 merge 都是原子操作，移出后新到的日志会进入下一个窗口
+            UpdateLog updateLog = pending.remove(key);
+            if (updateLog != null) {
+                logs.add(updateLog);
+            }
+        }
+        // 按序号提交，同一行的日志在写入器中保持顺序
+        logs.sort(Comparator.comparing(UpdateLog::getChangeSeq, Comparator.nullsLast(Comparator.naturalOrder())));
+        logs.forEach(writer::submit);
+        log.debug("----- Flushed {} coalesced update logs.", logs.size());
+    }
+
+    /**
+     * 合并两条日志，没有保留下来的序号不会再写入日志表，标记为完成
+     */
+    private UpdateLog coalesce(UpdateLog first, UpdateLog second) {
+        UpdateLog merged = merge(first, second);
+        for (UpdateLog updateLog : List.of(first, second)) {
+            if (!Objects.equals(updateLog.getChangeSeq(), merged.getChangeSeq())) {
+                changeSequenceGenerator.complete(updateLog.getChangeSeq());
+            }
+        }
+        return merged;
+    }
+
+    private boolean isWindowEnabled() {
+        return window != null && !window.isZero() && !window.isNegative();
+    }
+
+    /**
+     * 合并同一行的两条日志：变更前镜像取序号小的一条的，SQL、参数、影响行数、时间和序号取序号大的一条的。
+     * 序号为空时无法判断先后，按到达顺序处理。
+     */
+    static UpdateLog merge(UpdateLog first, UpdateLog second) {
+        boolean reversed = first.getChangeSeq() != null && second.getChangeSeq() != null
+                && first.getChangeSeq() > second.getChangeSeq();
+        UpdateLog earlier = reversed ? second : first;
+        UpdateLog later = reversed ? first : second;
+        return UpdateLog.builder()
+                .tableName(earlier.getTableName())
+                .primaryId(earlier.getPrimaryId())
+                .commandType(later.getCommandType())
+                .finalSql(later.getFinalSql())
+                .statementId(later.getStatementId())
+                .sqlTemplate(later.getSqlTemplate())
+                .boundValues(later.getBoundValues())
+                .params(later.getParams())
+                .rowAffect(later.getRowAffect())
+                .updateTime(later.getUpdateTime())
+                .changeSeq(later.getChangeSeq())
+                .beforeImage(earlier.getBeforeImage() != null ? earlier.getBeforeImage() : later.getBeforeImage())
+                .mergeCount(mergeCountOf(earlier) + mergeCountOf(later))
+                .build();
+    }
+
+    private static int mergeCountOf(UpdateLog updateLog) {
+        return updateLog.getMergeCount() == null ? 1 : updateLog.getMergeCount();
+    }
+}
@@ -0,0 +1,108 @@
+package com.yxw.dbchangelog.sink;
+
+import com.yxw.dbchangelog.config.ChangeLogProperties;
+import com.yxw.dbchangelog.mapper.UpdateLogMapper;
+import com.yxw.dbchangelog.mapper.UpdateLogOutboxMapper;
+import com.yxw.dbchangelog.model.UpdateLog;
+import com.yxw.dbchangelog.service.StatementDictionaryService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * outbox 日志搬运任务。
+ * 定时从 outbox 表按批锁定日志（FOR UPDATE SKIP LOCKED），批量写入日志表后再按批删除，每一批一个事务。
+ * 多个实例同时搬运时各自锁定不同的行，不会重复搬运。
+ * 日志表和业务表共用数据源时，写入日志表和删除 outbox 在同一个事务中提交；使用独立数据源时写入日志表先提交，
+ * 删除 outbox 前进程崩溃会在重启后再搬一次，日志表的 change_seq 唯一，重复的日志被忽略。
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "changelog", name = "mode", havingValue = "outbox")
+public class UpdateLogOutboxRelay {
+
+    private final UpdateLogOutboxMapper outboxMapper;
+
+    private final UpdateLogMapper logMapper;
+
+    private final StatementDictionaryService statementDictionaryService;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final ChangeLogProperties.Outbox config;
+
+    private ScheduledExecutorService relayScheduler;
+
+    public UpdateLogOutboxRelay(UpdateLogOutboxMapper outboxMapper, @Qualifier("changeLogUpdateLogMapper") UpdateLogMapper logMapper,
+                                StatementDictionaryService statementDictionaryService, TransactionTemplate transactionTemplate,
+                                ChangeLogProperties properties) {
+        this.outboxMapper = outboxMapper;
+        this.logMapper = logMapper;
+        this.statementDictionaryService = statementDictionaryService;
+        this.transactionTemplate = transactionTemplate;
+        this.config = properties.getOutbox();
+    }
+
+    @PostConstruct
+    public void start() {
+        relayScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "UpdateLogOutboxRelay-");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = config.getRelayInterval().toMillis();
+        relayScheduler.scheduleWithFixedDelay(this::relay, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        relayScheduler.shutdown();
+    }
+
+    /**
+     * 把 outbox 中的日志全部搬到日志表，返回搬运的条数
+     */
+    public int relay() {
+        int total = 0;
+        try {
+            while (true) {
+                Integer relayed = transactionTemplate.execute(status -> relayBatch());
+                total += relayed;
+                if (relayed < config.getBatchSize()) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            // 下次定时任务会从未删除的日志继续搬运
+            log.error("[Outbox Relay] Failed to relay update logs.", e);
+        }
+        if (total > 0) {
+            log.info("----- Relayed {} update logs from outbox.", total);
+        }
+        return total;
+    }
+
+    /**
+     * 在当前事务中锁定、搬运并删除一批日志，返回搬运的条数
+     */
+    private int relayBatch() {
+        List<UpdateLog> batch = outboxMapper.claimBatch(config.getBatchSize());
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        List<Long> ids = batch.stream().map(UpdateLog::getId).toList();
+        batch.forEach(statementDictionaryService::compact);
+        logMapper.insertLogs(batch);
+        outboxMapper.deleteByIds(ids);
+        return batch.size();
+    }
+}
@@ -0,0 +1,160 @@
+package com.yxw.dbchangelog.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 滑动窗口上的热点 key 统计（count-min sketch + top-K）。
+ * 窗口被切成若干个时间片，每个时间片一个 count-min sketch，key 的计数是窗口内各时间片估计值之和，过期的时间片整片清零。
+ * 另外维护最多 K 个候选热点 key，每次计数后和候选中的最小值比较决定是否替换；时间片滚动时重新估计候选的计数，
+ * 滑出窗口的旧热点不会一直占着候选位置。
+ * 内存固定为 时间片数 * depth * width 个计数器加 K 个候选，和 key 的种类数无关；每次计数的开销也是常数。
+ * count-min sketch 只会高估不会低估，width 越大误差越小。
+ * 所有方法都在同一把锁上执行，多个线程同时计数时用 StripedHeavyHitterTracker 分段。
+ */
+public class HeavyHitterTracker {
+
+    private final int depth;
+
+    private final int width;
+
+    private final int topK;
+
+    private final long sliceMillis;
+
+    // [时间片][哈希函数][桶]
+    private final int[][][] counts;
+
+    // 当前时间片下标和开始时间
+    private int currentSlice;
+
+    private long currentSliceStart;
+
+    // 候选热点 key 和最近一次的估计值
+    private final Map<String, Long> candidates = new HashMap<>();
+
+    public HeavyHitterTracker(int depth, int width, int slices, long windowMillis, int topK) {
+        if (depth <= 0 || width <= 0 || slices <= 0 || windowMillis <= 0 || topK <= 0) {
+            throw new IllegalArgumentException("depth, width, slices, window and topK must be positive.");
+        }
+        this.depth = depth;
+        this.width = width;
+        this.topK = topK;
+        this.sliceMillis = Math.max(1, windowMillis / slices);
+        this.counts = new int[slices][depth][width];
+        this.currentSliceStart = System.currentTimeMillis();
+    }
+
+    /**
+     * 计数一次，返回该 key 在窗口内的估计次数
+     */
+    public synchronized long add(String key) {
+        rotate(System.currentTimeMillis());
+        int h1 = spread(key.hashCode());
+        int h2 = spread(h1 ^ 0x9E3779B9);
+        long estimate = Long.MAX_VALUE;
+        for (int d = 0; d < depth; d++) {
+            int bucket = bucket(h1, h2, d);
+            counts[currentSlice][d][bucket]++;
+            estimate = Math.min(estimate, windowCount(d, bucket));
+        }
+        offerCandidate(key, estimate);
+        return estimate;
+    }
+
+    /**
+     * 窗口内计数最多的 n 个 key，按次数从大到小
+     */
+    public synchronized List<Map.Entry<String, Long>> top(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("n must not be negative.");
+        }
+        rotate(System.currentTimeMillis());
+        List<Map.Entry<String, Long>> result = new ArrayList<>(candidates.entrySet());
+        result.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        return result.size() > n ? new ArrayList<>(result.subList(0, n)) : result;
+    }
+
+    /**
+     * 某个 key 在窗口内的估计次数，不计数
+     */
+    public synchronized long estimateOf(String key) {
+        rotate(System.currentTimeMillis());
+        return estimate(key);
+    }
+
+    private long estimate(String key) {
+        int h1 = spread(key.hashCode());
+        int h2 = spread(h1 ^ 0x9E3779B9);
+        long estimate = Long.MAX_VALUE;
+        for (int d = 0; d < depth; d++) {
+            estimate = Math.min(estimate, windowCount(d, bucket(h1, h2, d)));
+        }
+        return estimate;
+    }
+
+    private void offerCandidate(String key, long estimate) {
+        if (candidates.containsKey(key) || candidates.size() < topK) {
+            candidates.put(key, estimate);
+            return;
+        }
+        // 候选已满，替换掉计数最小的那个
+        String minKey = null;
+        long minCount = Long.MAX_VALUE;
+        for (Map.Entry<String, Long> entry : candidates.entrySet()) {
+            if (entry.getValue() < minCount) {
+                minKey = entry.getKey();
+                minCount = entry.getValue();
+            }
+        }
+        if (estimate > minCount) {
+            candidates.remove(minKey);
+            candidates.put(key, estimate);
+        }
+    }
+
+    private long windowCount(int d, int bucket) {
+        long sum = 0;
+        for (int[][] slice : counts) {
+            sum += slice[d][bucket];
+        }
+        return sum;
+    }
+
+    /**
+     * 时间前进时滚动时间片，清零已经滑出窗口的时间片
+     */
+    private void rotate(long now) {
+        int slices = counts.length;
+        long elapsedSlices = (now - currentSliceStart) / sliceMillis;
+        if (elapsedSlices <= 0) {
+            return;
+        }
+        for (int i = 0; i < Math.min(elapsedSlices, slices); i++) {
+            currentSlice = (currentSlice + 1) % slices;
+            for (int[] row : counts[currentSlice]) {
+                Arrays.fill(row, 0);
+            }
+        }
+        currentSliceStart += elapsedSlices * sliceMillis;
+        // 时间片过期后重新估计候选的计数，窗口内已经没有更新的候选直接移除
+        candidates.replaceAll((key, count) -> estimate(key));
+        candidates.values().removeIf(count -> count == 0);
+    }
+
+    private int bucket(int h1, int h2, int d) {
+        return Math.floorMod(h1 + d * h2, width);
+    }
+
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
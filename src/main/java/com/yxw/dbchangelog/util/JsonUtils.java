@@ -7,7 +7,9 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import lombok.Getter;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
@@ -20,13 +22,21 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 @Slf4j
 public class JsonUtils {
 
+    // 启动后会被替换成 Spring 容器中配置好的 ObjectMapper，见 JsonUtilsConfig
     @Getter
-    public final static ObjectMapper objectMapper;
+    private static volatile ObjectMapper objectMapper;
+
+    // 按类型缓存的 ObjectWriter，避免每次序列化都重新查找序列化器
+    private static final Map<Class<?>, ObjectWriter> WRITERS = new ConcurrentHashMap<>();
+
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<Map<String, Object>>() {
+    };
 
     static {
         objectMapper = genObjectMapper();
@@ -49,7 +59,22 @@ public class JsonUtils {
         if (data.getClass().isPrimitive()) {
             return data.toString();
         }
-        return getObjectMapper().writeValueAsString(data);
+        return writerFor(data.getClass()).writeValueAsString(data);
+    }
+
+    /**
+     * 使用指定的 ObjectMapper（一般是 Spring 容器中配置好的），同时清空按类型缓存的 ObjectWriter
+     */
+    public static void setObjectMapper(ObjectMapper mapper) {
+        objectMapper = mapper;
+        WRITERS.clear();
+    }
+
+    /**
+     * 获取某个类型的 ObjectWriter，第一次使用时创建并缓存
+     */
+    public static ObjectWriter writerFor(Class<?> type) {
+        return WRITERS.computeIfAbsent(type, key -> getObjectMapper().writerFor(key));
     }
 
     /**
@@ -103,14 +128,14 @@ public class JsonUtils {
     }
 
 
-    @SneakyThrows
+    /**
+     * 对象转 Map，直接按 token 转换，不经过 json 字符串和 JsonNode
+     */
     public static Map<String, Object> objectToMap(Object data) {
         if (data == null) {
             return null;
         }
-        String json = toJson(data);
-        return jsonToObject(json, new TypeReference<Map<String, Object>>() {
-        });
+        return getObjectMapper().convertValue(data, MAP_TYPE);
     }
 
     @SneakyThrows
@@ -166,7 +191,8 @@ public class JsonUtils {
     }
 
     private static synchronized ObjectMapper genObjectMapper() {
-        return new ObjectMapper();
+        // 支持 LocalDateTime 等 JSR-310 类型，变更前镜像中的时间列就是这些类型
+        return new ObjectMapper().registerModule(new JavaTimeModule());
     }
 
     /**
@@ -0,0 +1,42 @@
+package com.yxw.dbchangelog.util;
+
+import java.util.List;
+
+/**
+ * SQL 模板相关的工具方法。
+ * 模板是 MyBatis 生成的带 ? 占位符的 SQL，绑定值是已经格式化好的 SQL 字面量（如 'abc'、12、null）。
+ */
+public class SqlTemplateUtils {
+
+    /**
+     * 去除多余空格，并将换行符替换为单个空格，使得SQL在一行显示
+     */
+    public static String normalize(String sql) {
+        return sql.replaceAll("[\\s]+", " ");
+    }
+
+    /**
+     * 把绑定值依次填入模板中的 ? 占位符，得到最终执行的SQL。
+     * 单引号内的 ? 是字符串常量的一部分，不当作占位符；绑定值不够时保留剩余的 ?。
+     */
+    public static String render(String template, List<String> values) {
+        if (values == null || values.isEmpty()) {
+            return template;
+        }
+        StringBuilder sql = new StringBuilder(template.length() + values.size() * 8);
+        boolean inQuote = false;
+        int valueIndex = 0;
+        for (int i = 0; i < template.length(); i++) {
+            char c = template.charAt(i);
+            if (c == '\'') {
+                inQuote = !inQuote;
+            }
+            if (c == '?' && !inQuote && valueIndex < values.size()) {
+                sql.append(values.get(valueIndex++));
+            } else {
+                sql.append(c);
+            }
+        }
+        return sql.toString();
+    }
+}
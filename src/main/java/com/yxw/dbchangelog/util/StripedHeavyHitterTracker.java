@@ -0,0 +1,62 @@
+package com.yxw.dbchangelog.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 分段的热点 key 统计，给多个业务线程同时计数用。
+ * 单个 HeavyHitterTracker 每次计数都要加锁，所有业务线程的更新会在这把锁上排队；
+ * 这里按线程把计数分到 N 个独立的 HeavyHitterTracker 上，不同线程基本不会争同一把锁。
+ * 查询时合并各段：候选 key 取各段候选的并集，计数取各段估计值之和。
+ * count-min sketch 各段估计值之和仍然不会低估，而且不大于把所有计数放在一个 sketch 中的估计值。
+ * 一个 key 的更新分散在各个线程上时，它在每一段的计数都更小，只有在某一段进入候选才能被查到，各段的 top-K 应该留一些余量。
+ */
+public class StripedHeavyHitterTracker {
+
+    private final HeavyHitterTracker[] stripes;
+
+    public StripedHeavyHitterTracker(int stripes, int depth, int width, int slices, long windowMillis, int topK) {
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("stripes must be positive.");
+        }
+        this.stripes = new HeavyHitterTracker[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new HeavyHitterTracker(depth, width, slices, windowMillis, topK);
+        }
+    }
+
+    /**
+     * 在当前线程对应的段上计数一次
+     */
+    public void add(String key) {
+        stripes[(int) Math.floorMod(Thread.currentThread().getId(), (long) stripes.length)].add(key);
+    }
+
+    /**
+     * 窗口内计数最多的 n 个 key，按次数从大到小
+     */
+    public List<Map.Entry<String, Long>> top(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("n must not be negative.");
+        }
+        Set<String> keys = new HashSet<>();
+        for (HeavyHitterTracker stripe : stripes) {
+            stripe.top(Integer.MAX_VALUE).forEach(entry -> keys.add(entry.getKey()));
+        }
+        Map<String, Long> counts = new HashMap<>();
+        for (String key : keys) {
+            long count = 0;
+            for (HeavyHitterTracker stripe : stripes) {
+                count += stripe.estimateOf(key);
+            }
+            counts.put(key, count);
+        }
+        List<Map.Entry<String, Long>> result = new ArrayList<>(counts.entrySet());
+        result.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        return result.size() > n ? new ArrayList<>(result.subList(0, n)) : result;
+    }
+}
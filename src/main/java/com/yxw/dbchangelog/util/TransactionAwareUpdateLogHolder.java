@@ -1,26 +1,27 @@
 package com.yxw.dbchangelog.util;
 
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronization;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 /**
  * 事务感知的更新日志信息持有者。
  * 用于在业务代码或MyBatis拦截器中收集更新数据，并在事务提交后统一处理。
+ * 日志列表作为事务资源绑定在 TransactionSynchronizationManager 上，而不是直接放在 ThreadLocal 中：
+ * REQUIRES_NEW 挂起外层事务时一起解绑，内层事务使用自己的列表，外层事务恢复时再绑定回来，
+ * 内层事务的提交或回滚不会发布或清掉外层事务的日志。线程池线程复用时也不会残留上一个事务的日志。
  */
 @Slf4j
 public class TransactionAwareUpdateLogHolder {
 
-    // 使用 ThreadLocal 存储当前事务的更新日志列表，线程隔离
+    // 当前事务的更新日志列表在 TransactionSynchronizationManager 中绑定的键，绑定了说明同步器也已注册
     // List<Map<String, Object>> 用于存储每条更新操作的上下文信息
-    private static final ThreadLocal<List<Map<String, Object>>> TRANSACTION_LOGS = ThreadLocal.withInitial(ArrayList::new);
-
-    // 用于在 TransactionSynchronizationManager 中标记同步器是否已注册的唯一键
-    private static final String SYNCHRONIZATION_REGISTERED_KEY = "updateLogSynchronizationRegistered";
+    private static final String UPDATE_LOGS_RESOURCE_KEY = "transactionUpdateLogs";
 
     /**
      * 添加一条更新日志信息到当前事务。
@@ -32,35 +33,15 @@ public class TransactionAwareUpdateLogHolder {
         /**
          * 简要说明：
          * TransactionSynchronizationManager 的事务绑定：
-         * TransactionSynchronizationManager.registerSynchronization() 方法会将 TransactionSynchronizationAdapter 实例绑定到当前线程正在进行的事务上。
+         * TransactionSynchronizationManager.registerSynchronization() 方法会将 TransactionSynchronization 实例绑定到当前线程正在进行的事务上。
          * 这意味着，事务 A 注册的同步器只会在事务 A 完成时触发 afterCompletion。事务 B 注册的同步器只会在事务 B 完成时触发 afterCompletion。
-         * if (!TransactionSynchronizationManager.hasResource(SYNCHRONIZATION_REGISTERED_KEY)) 这个判断确保了在同一个事务（即同一个线程）内，TransactionSynchronizationAdapter 只会被注册一次，避免了重复注册的开销。
-         * TransactionSynchronizationManager.bindResource() 和 unbindResourceIfPossible() 也是线程和事务绑定的，它们操作的资源也是当前事务的上下文，不会影响其他并行事务。
+         * bindLogsIfNecessary 先取当前事务绑定的日志列表，取到了说明同步器已经注册过，同一个事务内只会注册一次，避免了重复注册的开销。
+         * TransactionSynchronizationManager.bindResource() 和 unbindResourceIfPossible() 是线程绑定的，自定义资源在挂起事务时不会自动解绑，
+         * 所以同步器在 suspend/resume 中自己解绑和重新绑定日志列表，保证每个物理事务只看到自己的日志。
          */
 
         if (TransactionSynchronizationManager.isActualTransactionActive()) {
-            List<Map<String, Object>> logs = TRANSACTION_LOGS.get();
-            logs.add(logInfo);
-
-            // 检查是否已为当前事务注册了同步器标志
-            // 如果 hasResource(SYNCHRONIZATION_REGISTERED_KEY) 返回 false，说明是第一次注册
-            // 如果当前现场操作多个update语句，那么会进入addLog方法多次，但是同步器只会注册一次，避免重复注册
-            if (!TransactionSynchronizationManager.hasResource(SYNCHRONIZATION_REGISTERED_KEY)) {
-                log.info("----- Registering new TransactionSynchronization for update logs.");
-                //注册一个新的事务同步器，这个同步器会在事务完成后负责清理 ThreadLocal。
-                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
-                    @Override
-                    public void afterCompletion(int status) {
-                        // 事务完成后（提交或回滚）清理 ThreadLocal
-                        TRANSACTION_LOGS.remove();
-                        // 解绑注册标志，确保事务结束时状态被重置，避免内存泄漏
-                        TransactionSynchronizationManager.unbindResourceIfPossible(SYNCHRONIZATION_REGISTERED_KEY);
-                        log.info("----- TransactionAwareUpdateLogHolder afterCompletion cleaned for transaction status: {}", status);
-                    }
-                });
-                // 绑定一个资源（这里是一个简单的布尔值）作为“已注册”的标志
-                TransactionSynchronizationManager.bindResource(SYNCHRONIZATION_REGISTERED_KEY, Boolean.TRUE);
-            }
+            bindLogsIfNecessary().add(logInfo);
         } else {
             // 如果没有活动事务，这里日志将无法被AOP感知并统一处理
             log.info("----- Warning: addLog called outside of an active transaction. Log info: {}", logInfo);
@@ -69,24 +50,110 @@ public class TransactionAwareUpdateLogHolder {
         }
     }
 
+    /**
+     * 添加一条更新日志信息到当前事务，如果当前事务中已经有同一行 (tableName, primaryId) 的日志，则合并成一条。
+     * 合并后保留第一次的变更前镜像(beforeImage)，SQL、参数和影响行数取最后一次的，mergeCount 记录合并的次数。
+     * 同一事务内的变更是一起提交的，所以合并后的净变更和逐条记录是一致的，只是少写了中间状态。
+     * 表名或主键拿不到的日志无法判断是否是同一行，直接追加。
+     * @param logInfo 包含更新数据的Map
+     */
+    public static void addOrMergeLog(Map<String, Object> logInfo) {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            addLog(logInfo);
+            return;
+        }
+        Object tableName = logInfo.get("tableName");
+        Object primaryId = logInfo.get("primaryId");
+        List<Map<String, Object>> logs = bindLogsIfNecessary();
+        if (tableName != null && primaryId != null) {
+            // 事务内的日志一般不多，倒序找最近一条同一行的日志即可
+            for (int i = logs.size() - 1; i >= 0; i--) {
+                Map<String, Object> existing = logs.get(i);
+                if (tableName.equals(existing.get("tableName")) && primaryId.equals(existing.get("primaryId"))) {
+                    mergeInto(existing, logInfo);
+                    return;
+                }
+            }
+        }
+        addLog(logInfo);
+    }
+
+    /**
+     * 把后一次的变更合并到前一次的日志中，beforeImage 保留前一次的
+     */
+    private static void mergeInto(Map<String, Object> existing, Map<String, Object> latest) {
+        existing.put("finalSql", latest.get("finalSql"));
+        existing.put("statementId", latest.get("statementId"));
+        existing.put("sqlTemplate", latest.get("sqlTemplate"));
+        existing.put("boundValues", latest.get("boundValues"));
+        existing.put("parameters", latest.get("parameters"));
+        existing.put("rowsAffected", latest.get("rowsAffected"));
+        if (existing.get("beforeImage") == null) {
+            existing.put("beforeImage", latest.get("beforeImage"));
+        }
+        int mergeCount = (Integer) existing.getOrDefault("mergeCount", 1);
+        existing.put("mergeCount", mergeCount + (Integer) latest.getOrDefault("mergeCount", 1));
+        log.debug("----- Coalesced update log for {}#{}, merged count: {}", existing.get("tableName"),
+                existing.get("primaryId"), existing.get("mergeCount"));
+    }
+
+    /**
+     * 获取当前事务绑定的日志列表，第一次调用时创建列表并注册同步器，同一个事务只注册一次
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> bindLogsIfNecessary() {
+        // 如果当前现场操作多个update语句，那么会进入addLog方法多次，但是同步器只会注册一次，避免重复注册
+        List<Map<String, Object>> logs = (List<Map<String, Object>>) TransactionSynchronizationManager.getResource(UPDATE_LOGS_RESOURCE_KEY);
+        if (logs != null) {
+            return logs;
+        }
+        log.info("----- Registering new TransactionSynchronization for update logs.");
+        List<Map<String, Object>> newLogs = new ArrayList<>();
+        //注册一个新的事务同步器，这个同步器会在事务挂起、恢复和完成时维护日志列表的绑定。
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void suspend() {
+                // REQUIRES_NEW 等挂起外层事务时解绑，内层事务会绑定自己的列表
+                TransactionSynchronizationManager.unbindResourceIfPossible(UPDATE_LOGS_RESOURCE_KEY);
+            }
+
+            @Override
+            public void resume() {
+                TransactionSynchronizationManager.bindResource(UPDATE_LOGS_RESOURCE_KEY, newLogs);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                // 事务完成后（提交或回滚）解绑日志列表，确保事务结束时状态被重置，避免内存泄漏
+                TransactionSynchronizationManager.unbindResourceIfPossible(UPDATE_LOGS_RESOURCE_KEY);
+                log.info("----- TransactionAwareUpdateLogHolder afterCompletion cleaned for transaction status: {}", status);
+            }
+        });
+        TransactionSynchronizationManager.bindResource(UPDATE_LOGS_RESOURCE_KEY, newLogs);
+        return newLogs;
+    }
+
     /**
      * 获取当前事务的所有更新日志信息。
-     * 只有在事务完成前（例如AOP的@AfterReturning）调用才有效。
+     * 只有在事务完成前（例如AOP的@AfterReturning）调用才有效，没有事务或事务中没有日志时返回空列表。
      * @return 当前事务的更新日志列表
      */
+    @SuppressWarnings("unchecked")
     public static List<Map<String, Object>> getLogs() {
-        return TRANSACTION_LOGS.get();
+        List<Map<String, Object>> logs = (List<Map<String, Object>>) TransactionSynchronizationManager.getResource(UPDATE_LOGS_RESOURCE_KEY);
+        return logs == null ? Collections.emptyList() : logs;
     }
 
     /**
-     * 清理当前事务的日志信息和注册标志。
-     * 通常由 TransactionSynchronizationManager 自动在 afterCompletion 调用，
-     * 但如果需要手动强制清理（例如在测试环境中），也可以调用。
+     * 清空当前事务中已经收集的日志信息。
+     * 列表和同步器仍然绑定在事务上，事务中后续的更新继续收集，事务完成时由同步器解绑。
+     * 如果需要手动强制清理（例如在测试环境中），也可以调用。
      */
     public static void clearLogs() {
-        TRANSACTION_LOGS.remove();
-        // 确保也解绑注册标志
-        TransactionSynchronizationManager.unbindResourceIfPossible(SYNCHRONIZATION_REGISTERED_KEY);
+        List<Map<String, Object>> logs = getLogs();
+        if (!logs.isEmpty()) {
+            logs.clear();
+        }
         log.info("----- Manual cleanup of TransactionAwareUpdateLogHolder performed.");
     }
-}
\ No newline at end of file
+}
@@ -22,6 +22,59 @@ CREATE TABLE IF NOT EXISTS update_logs (
     command_type varchar(32) DEFAULT null comment '操作命令',
     final_sql varchar(1024) DEFAULT null comment '最终sql',
     params text DEFAULT null comment '参数',
+    statement_hash BIGINT DEFAULT NULL COMMENT 'SQL模板ID，对应statement_dictionary.id',
+    bound_values text DEFAULT null comment '绑定值，配合SQL模板还原最终sql',
+    before_image text DEFAULT null comment '变更前镜像',
+    merge_count int(11) DEFAULT 1 comment '合并的更新次数',
     row_affect int(11) DEFAULT null comment '影响行数',
-    update_time timestamp DEFAULT NULL COMMENT '日志记录时间'
-) COMMENT '操作日志表';
\ No newline at end of file
+    update_time timestamp DEFAULT NULL COMMENT '日志记录时间',
+    change_seq BIGINT DEFAULT NULL COMMENT '变更序号，同一行的变更按提交顺序递增',
+    KEY idx_table_primary (table_name, primary_id, change_seq),
+    UNIQUE KEY uk_change_seq (change_seq)
+) COMMENT '操作日志表';
+
+-- 变更序号表，序号按块预留，和 update_logs 在同一个库中
+drop table if exists change_sequence;
+CREATE TABLE IF NOT EXISTS change_sequence (
+    name varchar(64) PRIMARY KEY COMMENT '序列名',
+    next_value BIGINT NOT NULL COMMENT '下一个未预留的序号'
+) COMMENT '变更序号表';
+
+-- 变更序号水位表，每个实例一行，按序号续读日志时只读到所有存活实例水位的最小值
+drop table if exists change_sequence_watermark;
+CREATE TABLE IF NOT EXISTS change_sequence_watermark (
+    name varchar(64) NOT NULL COMMENT '序列名',
+    instance_id varchar(64) NOT NULL COMMENT '实例ID，每次启动生成',
+    watermark BIGINT NOT NULL COMMENT '该实例小于等于这个值的序号都已经写入或放弃',
+    heartbeat_time timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '最近一次心跳时间',
+    PRIMARY KEY (name, instance_id)
+) COMMENT '变更序号水位表';
+
+-- 日志 outbox 表，和业务表在同一个库中，outbox 模式下日志随业务事务一起写入，再由后台任务搬到 update_logs
+drop table if exists update_log_outbox;
+CREATE TABLE IF NOT EXISTS update_log_outbox (
+    id BIGINT PRIMARY KEY AUTO_INCREMENT COMMENT 'ID，主键自增',
+    table_name varchar(64) DEFAULT null comment '操作的哪张表',
+    primary_id BIGINT DEFAULT NULL COMMENT '操作数据的主键ID',
+    command_type varchar(32) DEFAULT null comment '操作命令',
+    final_sql varchar(1024) DEFAULT null comment '最终sql',
+    statement_id varchar(255) DEFAULT null comment 'MappedStatement ID',
+    sql_template text DEFAULT null comment '带?占位符的SQL模板',
+    bound_values text DEFAULT null comment '绑定值',
+    params text DEFAULT null comment '参数',
+    before_image text DEFAULT null comment '变更前镜像',
+    merge_count int(11) DEFAULT 1 comment '合并的更新次数',
+    row_affect int(11) DEFAULT null comment '影响行数',
+    update_time timestamp DEFAULT NULL COMMENT '事务提交时间',
+    change_seq BIGINT DEFAULT NULL COMMENT '变更序号',
+    KEY idx_change_seq (change_seq)
+) COMMENT '日志outbox表';
+
+-- SQL模板字典表
+drop table if exists statement_dictionary;
+CREATE TABLE IF NOT EXISTS statement_dictionary (
+    id BIGINT PRIMARY KEY COMMENT '模板ID，MappedStatement ID和SQL模板的稳定哈希',
+    statement_id varchar(255) NOT NULL COMMENT 'MappedStatement ID',
+    sql_template text NOT NULL COMMENT '带?占位符的SQL模板',
+    create_time timestamp DEFAULT CURRENT_TIMESTAMP COMMENT '登记时间'
+) COMMENT 'SQL模板字典表';
\ No newline at end of file
@@ -0,0 +1,55 @@
+package com.yxw.dbchangelog;
+
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 开启事务内合并、写入端合并窗口和变更前镜像的压力测试。
+ * 同一行的多次更新会合并成一条日志，不能再要求每个标记都有一条日志，改为检查：
+ * 日志中只有提交成功的标记，每一行的 merge_count 之和等于这一行提交的更新次数，每一行最后一次提交的更新一定在日志中，
+ * 同一行的日志按 change_seq 顺序和提交顺序一致。
+ */
+@TestPropertySource(properties = {
+		"changelog.coalesce.enabled=true",
+		"changelog.coalesce.window=50ms",
+		"changelog.capture.before-image=true"
+})
+class CoalescingUpdateLogCaptureStressTests extends UpdateLogCaptureStressTests {
+
+	@Override
+	protected void assertLogsMatchCommittedTokens() {
+		Integer duplicatedSeqs = jdbcTemplate.queryForObject(
+				"SELECT COUNT(*) - COUNT(DISTINCT change_seq) FROM update_logs", Integer.class);
+		assertThat(duplicatedSeqs).as("duplicated or missing change_seq").isZero();
+		Integer missingImages = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM update_logs WHERE before_image IS NULL", Integer.class);
+		assertThat(missingImages).as("logs without before image").isZero();
+
+		Map<Long, List<Integer>> committedByRow = new HashMap<>();
+		committedTokens.forEach((token, primaryId) ->
+				committedByRow.computeIfAbsent(primaryId, id -> new ArrayList<>()).add(Integer.parseInt(token.substring(1))));
+		Map<Long, Map<String, Integer>> loggedByRow = loggedTokensByRow();
+		assertThat(loggedByRow.keySet()).as("rows with logs").isEqualTo(committedByRow.keySet());
+
+		loggedByRow.forEach((primaryId, logged) -> {
+			int lastToken = 0;
+			int mergedUpdates = 0;
+			for (Map.Entry<String, Integer> entry : logged.entrySet()) {
+				assertThat(committedTokens.get(entry.getKey())).as("row of logged token %s", entry.getKey()).isEqualTo(primaryId);
+				int tokenNumber = Integer.parseInt(entry.getKey().substring(1));
+				assertThat(tokenNumber).as("change_seq order of row %s", primaryId).isGreaterThan(lastToken);
+				lastToken = tokenNumber;
+				mergedUpdates += entry.getValue();
+			}
+			List<Integer> committed = committedByRow.get(primaryId);
+			assertThat(mergedUpdates).as("merge_count sum of row %s", primaryId).isEqualTo(committed.size());
+			assertThat(lastToken).as("last committed update of row %s", primaryId)
+					.isEqualTo(committed.stream().mapToInt(Integer::intValue).max().orElse(0));
+		});
+	}
+}
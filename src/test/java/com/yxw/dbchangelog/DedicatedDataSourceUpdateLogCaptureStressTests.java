@@ -0,0 +1,17 @@
+package com.yxw.dbchangelog;
+
+import org.springframework.test.context.TestPropertySource;
+
+/**
+ * 日志写入端使用独立连接池的压力测试，连接的是同一个内存库
+ */
+@TestPropertySource(properties = {
+		"changelog.datasource.enabled=true",
+		"changelog.datasource.url=${spring.datasource.url}",
+		"changelog.datasource.username=${spring.datasource.username}",
+		"changelog.datasource.password=",
+		"changelog.datasource.driver-class-name=${spring.datasource.driver-class-name}",
+		"changelog.datasource.hikari.maximum-pool-size=8"
+})
+class DedicatedDataSourceUpdateLogCaptureStressTests extends UpdateLogCaptureStressTests {
+}
@@ -0,0 +1,10 @@
+package com.yxw.dbchangelog;
+
+import org.springframework.test.context.TestPropertySource;
+
+/**
+ * outbox 模式下的压力测试：日志在业务事务中写入 outbox 表，再由后台任务搬到日志表
+ */
+@TestPropertySource(properties = {"changelog.mode=outbox", "changelog.outbox.relay-interval=100ms"})
+class OutboxUpdateLogCaptureStressTests extends UpdateLogCaptureStressTests {
+}
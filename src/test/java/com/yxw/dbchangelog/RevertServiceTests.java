@@ -0,0 +1,164 @@
+package com.yxw.dbchangelog;
+
+import com.yxw.dbchangelog.model.RevertJob;
+import com.yxw.dbchangelog.model.RevertRequest;
+import com.yxw.dbchangelog.service.ProductService;
+import com.yxw.dbchangelog.service.RevertService;
+import com.yxw.dbchangelog.service.UpdateLogQueryService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * 按时间窗口回滚的测试，使用内存 H2 数据库。
+ * 窗口内 1~5 行只被 job 修改；6 行先被 job 修改、之后又被 ops 修改；7 行被 job 修改、窗口结束后又被 ops 修改；8 行只被 ops 修改。
+ */
+@SpringBootTest(properties = {
+		"changelog.capture.before-image=true",
+		"changelog.revert.chunk-size=2"
+})
+@ActiveProfiles("h2")
+class RevertServiceTests {
+
+	private static final BigDecimal ORIGINAL_PRICE = new BigDecimal("1.00");
+
+	@Autowired
+	private ProductService productService;
+
+	@Autowired
+	private RevertService revertService;
+
+	@Autowired
+	private UpdateLogQueryService updateLogQueryService;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	private Date from;
+
+	private Date to;
+
+	@BeforeEach
+	void setUp() throws InterruptedException {
+		jdbcTemplate.update("DELETE FROM update_logs");
+		jdbcTemplate.update("DELETE FROM update_log_outbox");
+		jdbcTemplate.update("DELETE FROM products");
+		List<Object[]> rows = new ArrayList<>();
+		for (long id = 1; id <= 8; id++) {
+			rows.add(new Object[]{id, "product-" + id});
+		}
+		jdbcTemplate.batchUpdate("INSERT INTO products (id, name, price, stock) VALUES (?, ?, 1.00, 0)", rows);
+
+		from = new Date();
+		Thread.sleep(20);
+		for (long id = 1; id <= 7; id++) {
+			productService.updateProductAndPrepareLog(id, new BigDecimal("9.00"), 9, "job");
+		}
+		productService.updateProductAndPrepareLog(6L, new BigDecimal("6.00"), 6, "ops");
+		productService.updateProductAndPrepareLog(8L, new BigDecimal("8.00"), 8, "ops");
+		to = awaitLogs(9);
+		Thread.sleep(20);
+		productService.updateProductAndPrepareLog(7L, new BigDecimal("7.00"), 7, "ops");
+		awaitLogs(10);
+	}
+
+	@Test
+	void dryRunReportsDiffsWithoutUpdating() throws InterruptedException {
+		RevertJob job = awaitDone(revertService.submit(request(null, true)));
+
+		assertThat(job.getStatus()).isEqualTo(RevertJob.Status.COMPLETED);
+		// 7 行窗口结束后又被修改过
+		assertThat(job.getConflictRows()).isEqualTo(1);
+		assertThat(job.getTotalRows()).isEqualTo(7);
+		assertThat(job.getChangedRows().get()).isEqualTo(7);
+		assertThat(job.getDiffs()).hasSize(7);
+		RevertJob.RowDiff firstDiff = job.getDiffs().stream().filter(diff -> diff.getPrimaryId() == 1L).findFirst().orElseThrow();
+		assertThat(new BigDecimal(firstDiff.getChanges().get("price")[1].toString())).isEqualByComparingTo(ORIGINAL_PRICE);
+		assertThat(job.getAppliedRanges()).isEmpty();
+		assertThat(price(1L)).isEqualByComparingTo("9.00");
+		assertThat(price(8L)).isEqualByComparingTo("8.00");
+	}
+
+	@Test
+	void filteredRevertSkipsConflictsAndAppliesInChunks() throws InterruptedException {
+		RevertJob job = awaitDone(revertService.submit(request(Map.of("updatedBy", "job"), false)));
+
+		assertThat(job.getStatus()).isEqualTo(RevertJob.Status.COMPLETED);
+		// 6 行 job 之后又被 ops 修改，7 行窗口结束后又被修改
+		assertThat(job.getConflictRows()).isEqualTo(2);
+		assertThat(job.getTotalRows()).isEqualTo(5);
+		assertThat(job.getChangedRows().get()).isEqualTo(5);
+		assertThat(job.getAppliedRanges()).extracting(RevertJob.IdRange::getFromId).containsExactlyInAnyOrder(1L, 3L, 5L);
+		for (long id = 1; id <= 5; id++) {
+			assertThat(price(id)).as("price of row %s", id).isEqualByComparingTo(ORIGINAL_PRICE);
+			assertThat(jdbcTemplate.queryForObject("SELECT updated_by FROM products WHERE id = ?", String.class, id)).isNull();
+		}
+		assertThat(price(6L)).isEqualByComparingTo("6.00");
+		assertThat(price(7L)).isEqualByComparingTo("7.00");
+		assertThat(price(8L)).isEqualByComparingTo("8.00");
+		// 每回滚一行写一条变更日志
+		awaitLogs(15);
+		Integer revertLogs = jdbcTemplate.queryForObject(
+				"SELECT COUNT(*) FROM update_logs WHERE params LIKE ?", Integer.class, "%" + job.getJobId() + "%");
+		assertThat(revertLogs).isEqualTo(5);
+	}
+
+	@Test
+	void windowBeyondSafeCommitTimeIsRejected() {
+		RevertRequest request = request(null, true);
+		request.setTo(new Date(System.currentTimeMillis() + 60_000));
+		assertThatThrownBy(() -> revertService.submit(request)).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	private RevertRequest request(Map<String, Object> filter, boolean dryRun) {
+		RevertRequest request = new RevertRequest();
+		request.setTableName("products");
+		request.setFrom(from);
+		request.setTo(to);
+		request.setFilter(filter);
+		request.setDryRun(dryRun);
+		return request;
+	}
+
+	private BigDecimal price(long id) {
+		return jdbcTemplate.queryForObject("SELECT price FROM products WHERE id = ?", BigDecimal.class, id);
+	}
+
+	/**
+	 * 等待日志表中有 expected 条日志，且安全序号覆盖了它们，返回安全序号处的提交时间
+	 */
+	private Date awaitLogs(int expected) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (System.currentTimeMillis() < deadline) {
+			Integer count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM update_logs", Integer.class);
+			Long maxSeq = jdbcTemplate.queryForObject("SELECT MAX(change_seq) FROM update_logs", Long.class);
+			if (count != null && count >= expected && updateLogQueryService.getSafeSeq() >= maxSeq) {
+				return updateLogQueryService.getSafeCommitTime();
+			}
+			Thread.sleep(50);
+		}
+		throw new AssertionError("update logs not written or not covered by the safe change_seq: " + expected);
+	}
+
+	private RevertJob awaitDone(RevertJob job) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (job.getStatus() != RevertJob.Status.COMPLETED && job.getStatus() != RevertJob.Status.FAILED
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+		assertThat(job.getError()).isNull();
+		return job;
+	}
+}
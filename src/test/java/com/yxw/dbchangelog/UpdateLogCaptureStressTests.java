@@ -0,0 +1,452 @@
+package com.yxw.dbchangelog;
+
+import com.yxw.dbchangelog.mapper.ProductMapper;
+import com.yxw.dbchangelog.model.Product;
+import com.yxw.dbchangelog.model.UpdateLog;
+import com.yxw.dbchangelog.service.ChangeSequenceGenerator;
+import com.yxw.dbchangelog.service.ProductService;
+import com.yxw.dbchangelog.service.UpdateLogQueryService;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 变更捕获链路的并发压力测试，使用内存 H2 数据库。
+ * 多个线程混合执行提交、回滚、嵌套 REQUIRED 和 REQUIRES_NEW 的更新，线程池中的线程会被反复复用。
+ * 每次提交的更新都带一个唯一的 updated_by 标记，最终 update_logs 中的标记必须和提交成功的标记完全一致：
+ * 不多（回滚的、重复的）也不少（丢失的），同一行的 change_seq 和提交顺序一致。
+ * 每次操作后检查工作线程上没有残留的事务资源和同步器，两轮之间检查堆内存没有持续增长。
+ * 日志写完后按 change_seq 断点续读必须读到全部日志，序号还没完成时续读不能越过它。
+ * 这里是默认的 async 模式，子类用同样的负载覆盖 outbox、独立数据源和合并几种配置。
+ */
+@Slf4j
+@SpringBootTest
+@ActiveProfiles("h2")
+@Import({UpdateLogCaptureStressTests.OuterOperations.class, UpdateLogCaptureStressTests.InnerOperations.class})
+class UpdateLogCaptureStressTests {
+
+	private static final int THREADS = 8;
+
+	// 任务数多于线程数，线程会被不同的任务复用
+	private static final int TASKS = 32;
+
+	private static final int OPS_PER_TASK = 100;
+
+	// 每个任务独占一段行，避免不同线程互相等行锁或死锁
+	private static final int ROWS_PER_RANGE = 8;
+
+	private static final long MAX_HEAP_GROWTH_BYTES = 64L * 1024 * 1024;
+
+	private static final Pattern TOKEN_PATTERN = Pattern.compile("'(t\\d+)'");
+
+	@Autowired
+	private ProductService productService;
+
+	@Autowired
+	private OuterOperations outerOperations;
+
+	@Autowired
+	protected JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private ChangeSequenceGenerator changeSequenceGenerator;
+
+	@Autowired
+	private UpdateLogQueryService updateLogQueryService;
+
+	private final AtomicInteger tokenSequence = new AtomicInteger();
+
+	// 提交成功的标记 -> 更新的行
+	protected final Map<String, Long> committedTokens = new ConcurrentHashMap<>();
+
+	private final AtomicInteger leakedStates = new AtomicInteger();
+
+	private final List<Throwable> unexpectedErrors = new ArrayList<>();
+
+	@BeforeEach
+	void setUp() {
+		jdbcTemplate.update("DELETE FROM update_logs");
+		jdbcTemplate.update("DELETE FROM update_log_outbox");
+		jdbcTemplate.update("DELETE FROM products");
+		List<Object[]> rows = new ArrayList<>();
+		for (long id = 1; id <= (long) THREADS * ROWS_PER_RANGE; id++) {
+			rows.add(new Object[]{id, "product-" + id});
+		}
+		jdbcTemplate.batchUpdate("INSERT INTO products (id, name, price, stock) VALUES (?, ?, 1.00, 0)", rows);
+	}
+
+	@Test
+	void concurrentMixedTransactionsCaptureEveryCommittedUpdateExactlyOnce() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		BlockingQueue<Long> ranges = new ArrayBlockingQueue<>(THREADS);
+		for (long i = 0; i < THREADS; i++) {
+			ranges.add(i * ROWS_PER_RANGE + 1);
+		}
+		try {
+			// 第一轮预热，之后的堆内存作为基线
+			runRound(pool, ranges);
+			long baselineHeap = usedHeapAfterGc();
+
+			long start = System.nanoTime();
+			runRound(pool, ranges);
+			long elapsedNanos = System.nanoTime() - start;
+			long heapGrowth = usedHeapAfterGc() - baselineHeap;
+
+			long drainStart = System.nanoTime();
+			awaitCapturedUpdates(committedTokens.size());
+			long drainNanos = System.nanoTime() - drainStart;
+			int logCount = countLogs();
+
+			double seconds = elapsedNanos / 1_000_000_000.0;
+			log.info("----- {}: {} ops in {} ms, {} ops/s; {} update logs written for {} committed updates, drained in {} ms; heap growth {} KB",
+					getClass().getSimpleName(), TASKS * OPS_PER_TASK, elapsedNanos / 1_000_000, Math.round(TASKS * OPS_PER_TASK / seconds),
+					logCount, committedTokens.size(), drainNanos / 1_000_000, heapGrowth / 1024);
+
+			assertThat(unexpectedErrors).isEmpty();
+			assertThat(leakedStates.get()).as("leaked transaction resources or synchronizations").isZero();
+			assertThat(heapGrowth).as("heap growth after a round").isLessThan(MAX_HEAP_GROWTH_BYTES);
+			assertLogsMatchCommittedTokens();
+			assertResumeReadsEveryLog(logCount);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	void resumeStopsBeforeChangeSequencesStillInFlight() throws InterruptedException {
+		long seq = changeSequenceGenerator.next();
+		changeSequenceGenerator.heartbeat();
+		assertThat(changeSequenceGenerator.getSafeSeq()).isLessThan(seq);
+
+		changeSequenceGenerator.complete(seq);
+		changeSequenceGenerator.heartbeat();
+		assertThat(awaitSafeSeq(seq)).isGreaterThanOrEqualTo(seq);
+	}
+
+	private void runRound(ExecutorService pool, BlockingQueue<Long> ranges) throws Exception {
+		List<Future<?>> futures = new ArrayList<>();
+		for (int task = 0; task < TASKS; task++) {
+			futures.add(pool.submit(() -> {
+				Long firstId = ranges.take();
+				try {
+					for (int i = 0; i < OPS_PER_TASK; i++) {
+						runRandomOperation(firstId);
+						checkNoTransactionStateLeft();
+					}
+				} finally {
+					ranges.add(firstId);
+				}
+				return null;
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+	}
+
+	private void runRandomOperation(long firstId) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		long id1 = firstId + random.nextInt(ROWS_PER_RANGE);
+		long id2 = firstId + (id1 - firstId + 1 + random.nextInt(ROWS_PER_RANGE - 1)) % ROWS_PER_RANGE;
+		String token1 = nextToken();
+		String token2 = nextToken();
+		int operation = random.nextInt(8);
+		try {
+			switch (operation) {
+				case 0 -> {
+					update(id1, token1);
+					committedTokens.put(token1, id1);
+				}
+				case 1 -> expectFailure(() -> productService.updateProductAndPrepareLogSimulatingFailure(id1, BigDecimal.ONE, 0, token1));
+				case 2 -> {
+					outerOperations.updateBothInOneTransaction(id1, token1, id2, token2);
+					committedTokens.put(token1, id1);
+					committedTokens.put(token2, id2);
+				}
+				case 3 -> expectFailure(() -> outerOperations.updateBothThenFail(id1, token1, id2, token2));
+				case 4 -> {
+					outerOperations.updateWithInnerNewTransaction(id1, token1, id2, token2);
+					committedTokens.put(token1, id1);
+					committedTokens.put(token2, id2);
+				}
+				case 5 -> {
+					// 外层回滚，已提交的内层 REQUIRES_NEW 事务保留
+					expectFailure(() -> outerOperations.updateWithInnerNewTransactionThenFail(id1, token1, id2, token2));
+					committedTokens.put(token2, id2);
+				}
+				case 6 -> {
+					// 外层先发布了日志再开启内层 REQUIRES_NEW 事务，外层回滚，内层的日志必须随内层提交
+					expectFailure(() -> outerOperations.publishThenInnerNewTransactionThenFail(id1, token1, id2, token2));
+					committedTokens.put(token2, id2);
+				}
+				default -> {
+					// 内层 REQUIRES_NEW 事务回滚，外层提交
+					outerOperations.updateWithFailingInnerNewTransaction(id1, token1, id2, token2);
+					committedTokens.put(token1, id1);
+				}
+			}
+		} catch (Throwable e) {
+			synchronized (unexpectedErrors) {
+				unexpectedErrors.add(e);
+			}
+		}
+	}
+
+	private void update(long id, String token) {
+		productService.updateProductAndPrepareLog(id, BigDecimal.ONE, tokenSequence.get(), token);
+	}
+
+	private String nextToken() {
+		return "t" + tokenSequence.incrementAndGet();
+	}
+
+	private static void expectFailure(Runnable operation) {
+		try {
+			operation.run();
+		} catch (ArithmeticException | IllegalStateException e) {
+			return;
+		}
+		throw new AssertionError("Operation was expected to fail and roll back.");
+	}
+
+	private void checkNoTransactionStateLeft() {
+		if (!TransactionSynchronizationManager.getResourceMap().isEmpty()
+				|| TransactionSynchronizationManager.isSynchronizationActive()
+				|| TransactionSynchronizationManager.isActualTransactionActive()) {
+			leakedStates.incrementAndGet();
+		}
+	}
+
+	/**
+	 * 等待写入器把已提交的日志写完（合并的日志按 merge_count 计数），再多等一会儿，让重复写入的日志也有机会出现
+	 */
+	private void awaitCapturedUpdates(int expected) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 60_000;
+		while (countCapturedUpdates() < expected && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+		Thread.sleep(500);
+	}
+
+	/**
+	 * 等待续读水位到达 seq，同一个 JVM 中缓存的其他测试上下文也是存活的实例，要等它们下一次心跳
+	 */
+	private long awaitSafeSeq(long seq) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10_000;
+		long safeSeq = changeSequenceGenerator.getSafeSeq();
+		while (safeSeq < seq && System.currentTimeMillis() < deadline) {
+			Thread.sleep(100);
+			safeSeq = changeSequenceGenerator.getSafeSeq();
+		}
+		return safeSeq;
+	}
+
+	private int countCapturedUpdates() {
+		Integer count = jdbcTemplate.queryForObject("SELECT COALESCE(SUM(merge_count), 0) FROM update_logs", Integer.class);
+		return count == null ? 0 : count;
+	}
+
+	private int countLogs() {
+		Integer count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM update_logs", Integer.class);
+		return count == null ? 0 : count;
+	}
+
+	/**
+	 * 不合并时每次提交的更新正好一条日志
+	 */
+	protected void assertLogsMatchCommittedTokens() {
+		List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+				"SELECT primary_id, final_sql, change_seq FROM update_logs WHERE table_name = 'products' ORDER BY primary_id, change_seq");
+		List<String> loggedTokens = new ArrayList<>();
+		Set<Long> changeSeqs = new HashSet<>();
+		Map<Long, Integer> lastTokenByRow = new HashMap<>();
+		for (Map<String, Object> row : rows) {
+			String finalSql = (String) row.get("final_sql");
+			Matcher matcher = TOKEN_PATTERN.matcher(finalSql);
+			assertThat(matcher.find()).as("token in %s", finalSql).isTrue();
+			String token = matcher.group(1);
+			loggedTokens.add(token);
+
+			Number changeSeq = (Number) row.get("change_seq");
+			assertThat(changeSeq).as("change_seq of %s", token).isNotNull();
+			assertThat(changeSeqs.add(changeSeq.longValue())).as("unique change_seq %s", changeSeq).isTrue();
+
+			// 同一行的更新是串行提交的，标记越大提交越晚，change_seq 的顺序必须一致
+			long primaryId = ((Number) row.get("primary_id")).longValue();
+			int tokenNumber = Integer.parseInt(token.substring(1));
+			Integer lastToken = lastTokenByRow.put(primaryId, tokenNumber);
+			if (lastToken != null) {
+				assertThat(tokenNumber).as("change_seq order of row %s", primaryId).isGreaterThan(lastToken);
+			}
+		}
+		assertThat(new HashSet<>(loggedTokens)).as("logged tokens").hasSameSizeAs(loggedTokens);
+		assertThat(new HashSet<>(loggedTokens)).isEqualTo(committedTokens.keySet());
+	}
+
+	/**
+	 * 读出日志表中的标记，按行、按 change_seq 排列：行 -> (标记 -> merge_count)
+	 */
+	protected Map<Long, Map<String, Integer>> loggedTokensByRow() {
+		List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+				"SELECT primary_id, final_sql, merge_count FROM update_logs WHERE table_name = 'products' ORDER BY primary_id, change_seq");
+		Map<Long, Map<String, Integer>> tokensByRow = new HashMap<>();
+		for (Map<String, Object> row : rows) {
+			Matcher matcher = TOKEN_PATTERN.matcher((String) row.get("final_sql"));
+			assertThat(matcher.find()).as("token in %s", row.get("final_sql")).isTrue();
+			tokensByRow.computeIfAbsent(((Number) row.get("primary_id")).longValue(), id -> new LinkedHashMap<>())
+					.put(matcher.group(1), ((Number) row.get("merge_count")).intValue());
+		}
+		return tokensByRow;
+	}
+
+	/**
+	 * 日志全部写完后序号都已完成，从 0 开始分页续读必须读到日志表中的全部日志
+	 */
+	private void assertResumeReadsEveryLog(int logCount) throws InterruptedException {
+		assertThat(changeSequenceGenerator.getInFlightCount()).as("change sequences still in flight").isZero();
+		changeSequenceGenerator.heartbeat();
+		Long maxSeq = jdbcTemplate.queryForObject("SELECT MAX(change_seq) FROM update_logs", Long.class);
+		awaitSafeSeq(maxSeq == null ? 0 : maxSeq);
+		long afterSeq = 0;
+		int read = 0;
+		List<UpdateLog> page = updateLogQueryService.getLogsAfterSeq(afterSeq, 500);
+		while (!page.isEmpty()) {
+			read += page.size();
+			afterSeq = page.get(page.size() - 1).getChangeSeq();
+			page = updateLogQueryService.getLogsAfterSeq(afterSeq, 500);
+		}
+		assertThat(read).as("logs read by resuming from change_seq").isEqualTo(logCount);
+	}
+
+	private static long usedHeapAfterGc() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(100);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * 外层事务中的各种嵌套组合
+	 */
+	@Component
+	static class OuterOperations {
+
+		private final ProductService productService;
+
+		private final ProductMapper productMapper;
+
+		private final InnerOperations innerOperations;
+
+		OuterOperations(ProductService productService, ProductMapper productMapper, InnerOperations innerOperations) {
+			this.productService = productService;
+			this.productMapper = productMapper;
+			this.innerOperations = innerOperations;
+		}
+
+		@Transactional
+		public void updateBothInOneTransaction(Long id1, String token1, Long id2, String token2) {
+			productService.updateProductAndPrepareLog(id1, BigDecimal.ONE, 1, token1);
+			productService.updateProductAndPrepareLog(id2, BigDecimal.ONE, 2, token2);
+		}
+
+		@Transactional
+		public void updateBothThenFail(Long id1, String token1, Long id2, String token2) {
+			updateBothInOneTransaction(id1, token1, id2, token2);
+			throw new IllegalStateException("Simulated failure after nested updates.");
+		}
+
+		/**
+		 * 外层直接通过 mapper 更新，内层事务开始时外层事务中还有没发布的日志
+		 */
+		@Transactional
+		public void updateWithInnerNewTransaction(Long id1, String token1, Long id2, String token2) {
+			Product product = productMapper.selectById(id1);
+			product.setUpdatedBy(token1);
+			productMapper.updateProduct(product);
+			innerOperations.updateInNewTransaction(id2, token2);
+		}
+
+		@Transactional
+		public void updateWithInnerNewTransactionThenFail(Long id1, String token1, Long id2, String token2) {
+			updateWithInnerNewTransaction(id1, token1, id2, token2);
+			throw new IllegalStateException("Simulated failure after inner transaction committed.");
+		}
+
+		/**
+		 * 嵌套的 REQUIRED 方法返回时已经在外层事务中发布了日志，之后再开启内层事务
+		 */
+		@Transactional
+		public void publishThenInnerNewTransactionThenFail(Long id1, String token1, Long id2, String token2) {
+			productService.updateProductAndPrepareLog(id1, BigDecimal.ONE, 5, token1);
+			innerOperations.updateInNewTransaction(id2, token2);
+			throw new IllegalStateException("Simulated failure after publishing and an inner transaction.");
+		}
+
+		@Transactional
+		public void updateWithFailingInnerNewTransaction(Long id1, String token1, Long id2, String token2) {
+			Product product = productMapper.selectById(id1);
+			product.setUpdatedBy(token1);
+			productMapper.updateProduct(product);
+			try {
+				innerOperations.failInNewTransaction(id2, token2);
+			} catch (ArithmeticException e) {
+				// 内层事务已回滚，外层继续提交
+			}
+		}
+	}
+
+	/**
+	 * 在新事务中执行的更新，外层事务会被挂起
+	 */
+	@Component
+	static class InnerOperations {
+
+		private final ProductService productService;
+
+		InnerOperations(ProductService productService) {
+			this.productService = productService;
+		}
+
+		@Transactional(propagation = Propagation.REQUIRES_NEW)
+		public void updateInNewTransaction(Long id, String token) {
+			productService.updateProductAndPrepareLog(id, BigDecimal.ONE, 3, token);
+		}
+
+		@Transactional(propagation = Propagation.REQUIRES_NEW)
+		public void failInNewTransaction(Long id, String token) {
+			productService.updateProductAndPrepareLogSimulatingFailure(id, BigDecimal.ONE, 4, token);
+		}
+	}
+}
@@ -0,0 +1,71 @@
+-- 和 src/main/resources/sql/table.sql 对应的 H2 表结构
+
+drop table if exists products;
+CREATE TABLE products (
+    id BIGINT PRIMARY KEY AUTO_INCREMENT,
+    name VARCHAR(255) NOT NULL,
+    price DECIMAL(10, 2) NOT NULL,
+    stock INT NOT NULL,
+    updated_by VARCHAR(32) DEFAULT NULL,
+    last_update_time timestamp DEFAULT NULL
+);
+
+drop table if exists update_logs;
+CREATE TABLE update_logs (
+    id BIGINT PRIMARY KEY AUTO_INCREMENT,
+    table_name varchar(64) DEFAULT null,
+    primary_id BIGINT DEFAULT NULL,
+    command_type varchar(32) DEFAULT null,
+    final_sql varchar(1024) DEFAULT null,
+    params text DEFAULT null,
+    statement_hash BIGINT DEFAULT NULL,
+    bound_values text DEFAULT null,
+    before_image text DEFAULT null,
+    merge_count int DEFAULT 1,
+    row_affect int DEFAULT null,
+    update_time timestamp DEFAULT NULL,
+    change_seq BIGINT DEFAULT NULL
+);
+CREATE INDEX idx_table_primary ON update_logs (table_name, primary_id, change_seq);
+CREATE UNIQUE INDEX uk_change_seq ON update_logs (change_seq);
+
+drop table if exists change_sequence;
+CREATE TABLE change_sequence (
+    name varchar(64) PRIMARY KEY,
+    next_value BIGINT NOT NULL
+);
+
+drop table if exists change_sequence_watermark;
+CREATE TABLE change_sequence_watermark (
+    name varchar(64) NOT NULL,
+    instance_id varchar(64) NOT NULL,
+    watermark BIGINT NOT NULL,
+    heartbeat_time timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (name, instance_id)
+);
+
+drop table if exists update_log_outbox;
+CREATE TABLE update_log_outbox (
+    id BIGINT PRIMARY KEY AUTO_INCREMENT,
+    table_name varchar(64) DEFAULT null,
+    primary_id BIGINT DEFAULT NULL,
+    command_type varchar(32) DEFAULT null,
+    final_sql varchar(1024) DEFAULT null,
+    statement_id varchar(255) DEFAULT null,
+    sql_template text DEFAULT null,
+    bound_values text DEFAULT null,
+    params text DEFAULT null,
+    before_image text DEFAULT null,
+    merge_count int DEFAULT 1,
+    row_affect int DEFAULT null,
+    update_time timestamp DEFAULT NULL,
+    change_seq BIGINT DEFAULT NULL
+);
+
+drop table if exists statement_dictionary;
+CREATE TABLE statement_dictionary (
+    id BIGINT PRIMARY KEY,
+    statement_id varchar(255) NOT NULL,
+    sql_template text NOT NULL,
+    create_time timestamp DEFAULT CURRENT_TIMESTAMP
+);